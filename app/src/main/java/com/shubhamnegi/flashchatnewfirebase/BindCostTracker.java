@@ -0,0 +1,101 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+/*
+    Measures what binding rows costs while the chat list is being flung.
+
+    For every bind it records how long onBindViewHolder() took and whether the bind asked for a new layout pass
+    (a row that was laid out before the bind and requests layout after it). When a fling comes to rest the numbers
+    of that fling are logged and the counters start over.
+
+    Before own and others' messages had their own view types, every bind called setLayoutParams(), so every bind
+    requested a layout pass. The log line compares against that: "removed" is the number of binds that didn't relayout.
+
+    Body texts of a different length still request a layout, the TextViews are wrap_content.
+ */
+class BindCostTracker extends RecyclerView.OnScrollListener {
+
+    private boolean mFlinging;
+
+    private long mBindCount;
+    private long mRelayoutCount;
+    private long mTotalBindNanos;
+    private long mMaxBindNanos;
+
+    private boolean mLayoutRequestedBefore;
+    private long mBindStartNanos;
+
+    BindCostTracker(RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(this);
+    }
+
+    // Called right before a row is bound
+    void beginBind(View row) {
+        mLayoutRequestedBefore = row.isLayoutRequested();
+        mBindStartNanos = SystemClock.elapsedRealtimeNanos();
+    }
+
+    // Called right after the same row was bound
+    void endBind(View row) {
+        long nanos = SystemClock.elapsedRealtimeNanos() - mBindStartNanos;
+        mBindCount++;
+        mTotalBindNanos += nanos;
+        mMaxBindNanos = Math.max(mMaxBindNanos, nanos);
+        ChatMetrics.get().bind.record(nanos / 1000);
+        if (!mLayoutRequestedBefore && row.isLayoutRequested()) mRelayoutCount++;
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_SETTLING) {
+            mFlinging = true;
+        } else if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            if (mFlinging) Log.d("FlashChat", "Fling finished: " + this);
+            mFlinging = false;
+            reset();
+        }
+    }
+
+    long getBindCount() {
+        return mBindCount;
+    }
+
+    long getRelayoutCount() {
+        return mRelayoutCount;
+    }
+
+    // Layout passes saved compared to setting the LayoutParams on every bind
+    long getRemovedRelayoutCount() {
+        return mBindCount - mRelayoutCount;
+    }
+
+    long getAverageBindMicros() {
+        return mBindCount == 0 ? 0 : mTotalBindNanos / mBindCount / 1000;
+    }
+
+    long getMaxBindMicros() {
+        return mMaxBindNanos / 1000;
+    }
+
+    private void reset() {
+        mBindCount = 0;
+        mRelayoutCount = 0;
+        mTotalBindNanos = 0;
+        mMaxBindNanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "BindCostTracker{binds=" + mBindCount
+                + ", relayouts=" + mRelayoutCount
+                + ", removed=" + getRemovedRelayoutCount()
+                + ", avgBind=" + getAverageBindMicros() + "us"
+                + ", maxBind=" + getMaxBindMicros() + "us}";
+    }
+}
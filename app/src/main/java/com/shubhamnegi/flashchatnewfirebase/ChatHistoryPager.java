@@ -0,0 +1,242 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Loads the chat history of a room one page at a time instead of downloading all of it.
+    The queries themselves are made by the ChatTransport, this class only decides which pages to ask for.
+    The FirebaseTransport spreads a room over day buckets; a page that crosses midnight is put together from several
+    of them, the pager doesn't see the difference.
+
+    Push keys are ordered by creation time, so ordering by key gives us the messages oldest to newest:
+      1. A single read of limitToLast(1) tells us the newest key at the time the chat was opened.
+      2. The newest page is endAt(newestKey).limitToLast(firstPageSize). Its upper bound is fixed, so new messages never
+         push the oldest ones out of the window. It's only about a screenful, so the first messages show up sooner.
+      3. Once that page is in, a live listener on startAfter(newestKey) receives everything sent from now on.
+      4. Older pages are endBefore(oldestKey).limitToLast(pageSize), requested while the user scrolls up.
+      5. To jump back to a date, loadTimeRange() asks for the messages the server stored between that date and the oldest
+         loaded one, by timestamp instead of by key. Only that slice is downloaded.
+
+    A page keeps its listener attached, so edits and deletes of loaded messages are reported as well.
+    If a message of a page is deleted, Firebase fills the page up with the next older one, which may also belong
+    to the page below. The MessageStore ignores such duplicates by push key.
+    Only the MAX_LIVE_PAGES pages asked for last stay attached. Scrolling far back cancels the pages that were loaded
+    first (the newest messages, which the live listener keeps adding to anyway): their messages stay in the MessageStore,
+    but edits and deletes of them are no longer reported, and the transport can let go of their data.
+ */
+class ChatHistoryPager {
+
+    // Receives the listener events of every page, see ChatEvent
+    interface Callback {
+        void onChatEvent(ChatEvent event);
+    }
+
+    static final int DEFAULT_PAGE_SIZE = 50;
+    // About one screen of messages
+    static final int DEFAULT_FIRST_PAGE_SIZE = 20;
+    // Pages whose listeners stay attached, about 400 messages of history
+    static final int MAX_LIVE_PAGES = 8;
+
+    private final ChatTransport mTransport;
+    private final int mFirstPageSize;
+    private final int mPageSize;
+    private final Callback mCallback;
+
+    // The live listeners, and the attached pages with the one asked for first at the head, so that stop() can cancel them all
+    private final List<ChatTransport.Subscription> mSubscriptions = new ArrayList<>();
+    private final ArrayDeque<ChatTransport.Subscription> mPages = new ArrayDeque<>();
+
+    private boolean mStarted;
+    // Bumped by stop(), so that answers to requests made before can be recognised and ignored
+    private int mGeneration;
+    private String mOldestKey;
+    private boolean mLoadingOlder;
+    private boolean mReachedStart;
+
+    ChatHistoryPager(ChatTransport transport, int firstPageSize, int pageSize, Callback callback) {
+        mTransport = transport;
+        mFirstPageSize = firstPageSize;
+        mPageSize = pageSize;
+        mCallback = callback;
+    }
+
+    void start() {
+        mStarted = true;
+        mLoadingOlder = true;   // nothing can be paged in before the newest page has arrived
+        final int generation = mGeneration;
+
+        mTransport.readNewestKey(new ChatTransport.KeyCallback() {
+            @Override
+            public void onKey(String newestKey) {
+                if (generation != mGeneration) return;
+
+                if (newestKey == null) {
+                    // Empty room, every message from now on is a live one
+                    mReachedStart = true;
+                    mLoadingOlder = false;
+                    mSubscriptions.add(mTransport.subscribeAfter(null, mPageListener));
+                } else {
+                    loadNewestPage(newestKey);
+                }
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                Log.d("FlashChat", "Could not read the newest message: " + reason);
+                mLoadingOlder = false;
+            }
+        });
+    }
+
+    private void loadNewestPage(final String newestKey) {
+        final int generation = mGeneration;
+
+        addPage(mTransport.subscribePage(newestKey, true, mFirstPageSize, mPageListener, new ChatTransport.PageCallback() {
+            @Override
+            public void onPageLoaded(String oldestKey, int count) {
+                if (generation != mGeneration) return;
+
+                mOldestKey = oldestKey;
+                mReachedStart = count < mFirstPageSize;
+                mLoadingOlder = false;
+
+                // Only now start listening for new messages so they always land after the newest page
+                mSubscriptions.add(mTransport.subscribeAfter(newestKey, mPageListener));
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                Log.d("FlashChat", "Could not load the newest page: " + reason);
+                mLoadingOlder = false;
+            }
+        }));
+    }
+
+    // Requests the page right before the oldest loaded message. Does nothing if one is already on its way.
+    void loadOlder() {
+        if (!mStarted || mLoadingOlder || mReachedStart || mOldestKey == null) return;
+        mLoadingOlder = true;
+
+        final long startedAt = System.currentTimeMillis();
+        final int generation = mGeneration;
+
+        addPage(mTransport.subscribePage(mOldestKey, false, mPageSize, mPageListener, new ChatTransport.PageCallback() {
+            @Override
+            public void onPageLoaded(String oldestKey, int count) {
+                if (generation != mGeneration) return;
+
+                if (oldestKey != null) mOldestKey = oldestKey;
+                mReachedStart = count < mPageSize;
+                mLoadingOlder = false;
+
+                Log.d("FlashChat", "Loaded " + count + " older messages in " + (System.currentTimeMillis() - startedAt) + "ms");
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                Log.d("FlashChat", "Could not load older messages: " + reason);
+                mLoadingOlder = false;
+            }
+        }));
+    }
+
+    /*
+        Requests the newest limit messages stored between startAt and endAt (server time), e.g. from a date up to the oldest
+        loaded message. Returns false and does nothing if a page is already on its way.
+        The range stays subscribed like any page. Paging back carries on from its oldest message.
+     */
+    boolean loadTimeRange(long startAt, long endAt, int limit, final ChatTransport.PageCallback callback) {
+        if (!mStarted || mLoadingOlder) return false;
+        mLoadingOlder = true;
+
+        final long startedAt = System.currentTimeMillis();
+        final int generation = mGeneration;
+
+        addPage(mTransport.subscribeTimeRange(startAt, endAt, limit, mPageListener, new ChatTransport.PageCallback() {
+            @Override
+            public void onPageLoaded(String oldestKey, int count) {
+                if (generation != mGeneration) return;
+
+                if (oldestKey != null && (mOldestKey == null || oldestKey.compareTo(mOldestKey) < 0)) mOldestKey = oldestKey;
+                mLoadingOlder = false;
+
+                Log.d("FlashChat", "Loaded " + count + " messages by time in " + (System.currentTimeMillis() - startedAt) + "ms");
+                callback.onPageLoaded(oldestKey, count);
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                Log.d("FlashChat", "Could not load messages by time: " + reason);
+                mLoadingOlder = false;
+                callback.onFailed(reason);
+            }
+        }));
+        return true;
+    }
+
+    // Keeps the page attached and cancels the one asked for first once there are more than MAX_LIVE_PAGES
+    private void addPage(ChatTransport.Subscription page) {
+        mPages.addLast(page);
+        if (mPages.size() > MAX_LIVE_PAGES) mPages.removeFirst().cancel();
+    }
+
+    boolean isLoadingOlder() {
+        return mLoadingOlder;
+    }
+
+    // True once the very first message of the room has been loaded
+    boolean hasReachedStart() {
+        return mReachedStart;
+    }
+
+    // Continues paging back from the oldest message restored from the MessageCache, before start() was ever called
+    void restore(String oldestKey) {
+        mOldestKey = oldestKey;
+        mReachedStart = false;
+    }
+
+    /*
+        Listens again after stop() or restore(), but only for messages newer than lastSeenKey: everything up to there is still loaded.
+        Paging further back carries on from where it was. If the newest page never arrived before stop(), starts over.
+     */
+    void resume(String lastSeenKey) {
+        if (mStarted) return;
+        if (lastSeenKey == null || (mOldestKey == null && !mReachedStart)) {
+            start();
+            return;
+        }
+        mStarted = true;
+        mSubscriptions.add(mTransport.subscribeAfter(lastSeenKey, mPageListener));
+    }
+
+    void stop() {
+        mStarted = false;
+        mGeneration++;
+        mLoadingOlder = false;
+        for (ChatTransport.Subscription subscription : mSubscriptions) {
+            subscription.cancel();
+        }
+        mSubscriptions.clear();
+        for (ChatTransport.Subscription page : mPages) {
+            page.cancel();
+        }
+        mPages.clear();
+    }
+
+    // Forwards every event of every attached page (and of the live listener) to the callback
+    private final ChatTransport.Listener mPageListener = new ChatTransport.Listener() {
+        @Override
+        public void onEvent(ChatEvent event) {
+            mCallback.onChatEvent(event);
+        }
+
+        @Override
+        public void onCancelled(String reason) {
+            Log.d("FlashChat", "Listener cancelled: " + reason);
+        }
+    };
+}
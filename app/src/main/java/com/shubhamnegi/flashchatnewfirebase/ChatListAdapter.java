@@ -2,232 +2,325 @@ package com.shubhamnegi.flashchatnewfirebase;
 
 
 import android.app.Activity;
-import android.content.Context;
 import android.graphics.Color;
-import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
-import android.widget.LinearLayout;
 import android.widget.TextView;
-import com.google.firebase.database.ChildEventListener;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
 
-import java.util.ArrayList;
+import androidx.annotation.NonNull;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
-public class ChatListAdapter extends BaseAdapter {
+import java.util.List;
 
-    // Base Adapter --> https://developer.android.com/reference/android/widget/BaseAdapter
+public class ChatListAdapter extends RecyclerView.Adapter<ChatListAdapter.ViewHolder> {
+
+    // RecyclerView.Adapter --> https://developer.android.com/reference/androidx/recyclerview/widget/RecyclerView.Adapter
+
+    // View types, own messages and other users' messages are inflated from different layouts
+    private static final int VIEW_TYPE_ME = 0;
+    private static final int VIEW_TYPE_OTHER = 1;
+
+    // How many rows above and below a bound row have their text measured ahead of time
+    private static final int PREFETCH_ROWS = 10;
+
+    // Rows just off screen that the RecyclerView keeps bound in its view cache, they are redrawn along with the visible ones
+    private static final int OFF_SCREEN_ROWS = 4;
+
+    // Payload of a change that only touches the author line (a new name, new readers), the body is left alone
+    private static final Object PAYLOAD_AUTHOR = new Object();
 
     // Member Variables
     private Activity mActivity;
-    private DatabaseReference mDatabaseReference;
-    private String mDisplayName;
-    private ArrayList<DataSnapshot> mSnapshotList;
+    private ChatRepository mRepository;
+    private ChatScrollPrefetcher mPrefetcher;
+    private LinearLayoutManager mLayoutManager;
+    private BindCostTracker mBindCostTracker;
+    // Message bodies measured in the background, so binding doesn't have to measure them
+    private MessageTextCache mTextCache = new MessageTextCache(MessageTextCache.DEFAULT_MAX_ENTRIES);
+
+    /*
+        The messages on screen, indexed by push key. They live in the ChatRepository so they survive the activity.
+        The store knows exactly which rows every listener event touched and reports them through mStoreListener,
+        so no diffing of the whole list is needed.
+     */
+    private MessageStore mStore;
+    // Evicts the bodies of rows far from the ones being bound and loads them back when they come close again
+    private MessageWindow mWindow;
+
+    // Display names by uid, messages only carry the author's uid
+    private ProfileCache mProfiles;
+    // How far the other members have read, for the "seen by" of our own messages
+    private ReadReceipts mReceipts;
 
     /* DataSnapshot is a type used by Firebase for passing the data from database back to our app.
         Every time we read from a cloud database, we receive the data in a form of DataSnapshot.
         DataSnapshot --> https://firebase.google.com/docs/reference/android/com/google/firebase/database/DataSnapshot
+        The ChatRepository receives them from its ChatTransport and only hands us decoded messages.
      */
 
-    /*
-        ChildEventListener is a listener that will get notified if there have been any changes to the database.
-        For eg. when someone sends a message and new data gets added to our database, that qualifies as a change
-        and our listener will report back.
-        ChildEventListener --> https://firebase.google.com/docs/reference/android/com/google/firebase/database/ChildEventListener
-     */
-
-    private ChildEventListener mListener = new ChildEventListener() {
-        // Fired when new chat message is added to the database
+    // Forwards the rows the store touched to the RecyclerView, so only those get rebound
+    private MessageStore.Listener mStoreListener = new MessageStore.Listener() {
         @Override
-        public void onChildAdded(DataSnapshot dataSnapshot, String s) {
-            mSnapshotList.add(dataSnapshot);
-            notifyDataSetChanged();
+        public void onInserted(int position, int count) {
+            // New messages at the bottom are measured before the list scrolls to them
+            if (count <= PREFETCH_ROWS) prefetchText(position, position + count - 1);
+            notifyItemRangeInserted(position, count);
         }
 
         @Override
-        public void onChildChanged(DataSnapshot dataSnapshot, String s) {
-
+        public void onChanged(int position) {
+            notifyItemChanged(position);
         }
 
         @Override
-        public void onChildRemoved(DataSnapshot dataSnapshot) {
-
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
         }
 
         @Override
-        public void onChildMoved(DataSnapshot dataSnapshot, String s) {
-
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(fromPosition, toPosition);
         }
+    };
 
+    /*
+        A name arrived or someone renamed themselves. Only the author line of the rows on screen is rebound, the others
+        look the name up when they are bound next. Which rows are that user's isn't worth finding out, it's a dozen rows at most.
+     */
+    private ProfileCache.Listener mProfileListener = new ProfileCache.Listener() {
         @Override
-        public void onCancelled(DatabaseError databaseError) {
+        public void onProfileChanged(String uid) {
+            notifyAuthorChanged(0, getItemCount() - 1);
+        }
+    };
 
+    // Someone read further. Only our messages between their old and new mark have new readers, of those the ones on screen are rebound.
+    private ReadReceipts.Listener mReadListener = new ReadReceipts.Listener() {
+        @Override
+        public void onReadMarksChanged(String fromKey, String toKey) {
+            int first = fromKey == null ? 0 : mStore.positionAfter(fromKey);
+            notifyAuthorChanged(first, mStore.positionAfter(toKey) - 1);
         }
     };
 
     // Constructor of ChatListAdapter
-    public ChatListAdapter(Activity activity, DatabaseReference ref, String name) {
+    public ChatListAdapter(Activity activity, ChatRepository repository) {
 
         mActivity = activity;
-        mDisplayName = name;
-        // common error: typo in the db location. Needs to match what's in MainChatActivity.
-        mDatabaseReference = ref.child("messages");
-        mDatabaseReference.addChildEventListener(mListener);
+        mRepository = repository;
+        mStore = repository.getStore();
+        mWindow = repository.getWindow();
+        mReceipts = repository.getReadReceipts();
+        mProfiles = ProfileCache.getInstance(repository.getTransport());
+        mStore.setListener(mStoreListener);
+        mProfiles.addListener(mProfileListener);
+        mReceipts.addListener(mReadListener);
+        setHasStableIds(true);
+    }
 
-        mSnapshotList = new ArrayList<>();
+    // Starts fetching older pages ahead of time while the user scrolls up the given list
+    void attachTo(RecyclerView recyclerView) {
+        mPrefetcher = new ChatScrollPrefetcher(recyclerView, mRepository.getPager());
+        mLayoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        mBindCostTracker = new BindCostTracker(recyclerView);
     }
 
     // Inner class --> Class inside a class
-    private static class ViewHolder{
+    // RecyclerView forces us to use a ViewHolder, it holds onto all the views that make up an individual chat row
+    static class ViewHolder extends RecyclerView.ViewHolder {
         TextView authorName;
         TextView body;
-        LinearLayout.LayoutParams params;
+        // The author colour of the row's layout, restored after a failed message was shown in red
+        int authorColor;
+
+        ViewHolder(View itemView, int authorColor) {
+            super(itemView);
+            // Linking the fields of the ViewHolder to the views in the chat row, findViewById() runs only once per row
+            authorName = itemView.findViewById(R.id.author);
+            body = itemView.findViewById(R.id.message);
+            this.authorColor = authorColor;
+        }
     }
 
     /**
-     * Overriding Methods of Base Adapter
+     * Overriding Methods of RecyclerView.Adapter
      */
 
     @Override
-    public int getCount() {
-        return mSnapshotList.size();
+    public int getItemCount() {
+        return mStore.size();
     }
 
+    // The store already worked out which user has sent the chat when the message arrived
     @Override
-    // Returning item of type InstantMessage
-    public InstantMessage getItem(int position) {
-
-        DataSnapshot snapshot = mSnapshotList.get(position);
-        // The DataSnapshot actually comes in the form of JSON and contains our chat message data.
-        return snapshot.getValue(InstantMessage.class);     // converts the JSON from the snapshot into an InstantMessage object
+    public int getItemViewType(int position) {
+        return mStore.isMe(position) ? VIEW_TYPE_ME : VIEW_TYPE_OTHER;
     }
 
+    // Stable ids: the store's row id, so the RecyclerView can track rows across updates
     @Override
     public long getItemId(int position) {
-        return 0;
+        return mStore.getRowId(position);
     }
 
-    @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
+    /*
+     Creating an individual row from scratch for each list item is computationally expensive, and it would be a crappy user experience if our phone starts lagging as we are scrolling through the list.
+     One way to avoid a lag is to load up the entire list into memory. However, if we have a list of thousand items, we cannot possibly load all these rows at once.
 
-        /*
-         Creating an individual row from scratch for each list item is computationally expensive, and it would be a crappy user experience if our phone starts lagging as we are scrolling through the list.
-         One way to avoid a lag is to load up the entire list into memory. However, if we have a list of thousand items, we cannot possibly load all these rows at once.
+     So the solution is, as soon as a row scroll out of the sight, we need to keep hold of the view that make up that row. And when a new row scrolls on the screen,
+     we will supply that row with the view that we've used before, but we will populate the view wit new data.
 
-         So the solution is, as soon as a row scroll out of the sight, we need to keep hold of the view that make up that row. And when a new row scrolls on the screen,
-         we will supply that row with the view that we've used before, but we will populate the view wit new data.
+     Reconfiguring an existing row has a big performance advantage because we don't constantly create and destroy the same type of object.
+     RecyclerView does this for us: onCreateViewHolder() is only called when there's no row that can be reused,
+     and onBindViewHolder() reconfigures an existing row with new data.
+     */
 
-         Reconfiguring an existing row has a big performance advantage because we don't constantly create and destroy the same type of object.
-         */
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        // To create a view from a layout XML file, we need a component called the layoutInflater
+        LayoutInflater inflater = LayoutInflater.from(mActivity);
 
         /*
-          Checking if there's an existing row that can be reused :
-          The convertView here represents a list item. If it exists (convertView != null) , we can reconfigure it.
-          And if it does not exists (convertView == null), then we have to create a new row from the layout file.
-        */
-
-        if (convertView == null) {
-            /*
-                Creating new row from scratch
-             */
-
-
-            // To create a view from a layout XML file, we need a component called the layoutInflater
-            LayoutInflater inflater = (LayoutInflater) mActivity.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-            // With the inflate method, we will supply our chat_msg_row.xml file and stick that into the convertView.
-            convertView = inflater.inflate(R.layout.chat_msg_row, parent, false);
-
-            // This is the inner helper class that will hold onto all the things that make up an individual chat_msg_row.
-            final ViewHolder holder = new ViewHolder();
+            Each side of the chat has its own layout, so the alignment, the author colour and the speech bubble are set once here.
+            RecyclerView only hands a row to onBindViewHolder() for a message of the same view type,
+            so binding never has to change the LayoutParams or the background, which would relayout the row every time.
 
-            // Linking the fields of the ViewHolder to the views in the chat_msg_row
-            holder.authorName = convertView.findViewById(R.id.author);
-            holder.body = convertView.findViewById(R.id.message);
-            holder.params = (LinearLayout.LayoutParams) holder.authorName.getLayoutParams();
-
-            /* Finally we need to give the adapter a way of storing our ViewHolder for a short period of time so that we can reuse it later.
-                Reusing the ViewHolder will allow us to avoid calling findViewById() method.
-                Using the setTag() method to temporarily store our ViewHolder in the convertView
-            */
-            convertView.setTag(holder);
-
-        }
+            9 patch image file defines a set of pixels which can be stretched in any direction.
+            It helps in creating a speech bubble effect and cover the entire chat message regardless if the message is short or long
+            bubble2.9.png is our own speech bubble, bubble1.9.png the one of the other users.
 
-        /**
-         *  No need to create a new row from the scratch
+            9 Patch Graphics --> https://developer.android.com/guide/topics/graphics/drawables#nine-patch
+            Creating 9 Patch Graphics --> https://developer.android.com/studio/write/draw9patch
          */
+        ViewHolder holder;
+        if (viewType == VIEW_TYPE_ME) {
+            // Aligned to the right with a green author name
+            // If you want to use colours from colors.xml
+            // int colourAsARGB = ContextCompat.getColor(mActivity.getApplicationContext(), R.color.yellow);
+            View row = inflater.inflate(R.layout.chat_msg_row_me, parent, false);
+            holder = new ViewHolder(row, Color.GREEN);
+        } else {
+            // Aligned to the left with a blue author name
+            View row = inflater.inflate(R.layout.chat_msg_row_other, parent, false);
+            holder = new ViewHolder(row, Color.BLUE);
+        }
 
-        // Getting the InstantMessage at the current position in the list
-        final InstantMessage message = getItem(position);
-
-        // Using the getTag() method in order to retrieve the ViewHolder that was temporarily saved in the convertView
-        final ViewHolder holder = (ViewHolder) convertView.getTag();
-
-        // For checking which user have sent the chat and style the chat messages accordingly
-        boolean isMe = message.getAuthor().equals(mDisplayName);
-        setChatRowAppearance(isMe, holder);
-
-        /* The viewHolder that we just fetched from the convertView is still going to have the old data in it from the previous time that it was used.
-            So we're going to change that by replacing the old data.
-        */
-        String author = message.getAuthor();
-        holder.authorName.setText(author);
-
-        String msg = message.getMessage();
-        holder.body.setText(msg);
+        // Both layouts use the same text style for the body, if it changed (e.g. a new font scale) the measured texts are dropped
+        mTextCache.setParams(TextViewCompat.getTextMetricsParams(holder.body));
+        return holder;
+    }
 
-        // If convertView != null, return convertView
-        return convertView;
+    // Rows that were only told about a new name or new readers get their author line redrawn and nothing else
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        boolean authorOnly = !payloads.isEmpty();
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_AUTHOR) authorOnly = false;
+        }
+        if (!authorOnly) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        if (mBindCostTracker != null) mBindCostTracker.beginBind(holder.itemView);
+        bindAuthor(holder, position);
+        if (mBindCostTracker != null) mBindCostTracker.endBind(holder.itemView);
     }
 
-    // Method for styling the chat messages
-    private void setChatRowAppearance(boolean isItMe, ViewHolder holder) {
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        if (mBindCostTracker != null) mBindCostTracker.beginBind(holder.itemView);
 
-        if (isItMe) {
+        /* The viewHolder we are given is still going to have the old data in it from the previous time that it was used.
+            So we're going to change that by replacing the old data. Only the text, the row already looks right for its side.
+        */
+        String msg = mStore.getBody(position);
+        mWindow.onBound(position);
+        if (mStore.isEvicted(position)) {
+            // Its body is being loaded back from the MessageSpill, the row is bound again once it's there
+            holder.body.setText("");
+        } else {
+            PrecomputedTextCompat measured = mTextCache.get(mStore.getKey(position), msg);
+            if (measured != null) {
+                // Already measured in the background, the TextView only has to break it into lines
+                TextViewCompat.setPrecomputedText(holder.body, measured);
+            } else {
+                holder.body.setText(msg);
+            }
+        }
 
-            //  If message belongs to the sending user, change the layout of entire row to align to the right and change the color of the Author name to green
+        bindAuthor(holder, position);
 
-            holder.params.gravity = Gravity.END;
-            holder.authorName.setTextColor(Color.GREEN);
+        if (mBindCostTracker != null) mBindCostTracker.endBind(holder.itemView);
 
-            // If you want to use colours from colors.xml
-            // int colourAsARGB = ContextCompat.getColor(mActivity.getApplicationContext(), R.color.yellow);
-            // holder.authorName.setTextColor(colourAsARGB);
+        // Measure the rows around this one, whichever way the user scrolls next
+        prefetchText(position - PREFETCH_ROWS, position + PREFETCH_ROWS);
+    }
 
-            // Wrapping chat message in speech bubble
-            holder.body.setBackgroundResource(R.drawable.bubble2);  // bubble2.9.png --> Image file of type 9 patch
+    /*
+        The author line, and with it the state of the row: our own messages are shown before Firebase confirmed them,
+        faded while they are being sent, in red if sending failed.
+     */
+    private void bindAuthor(ViewHolder holder, int position) {
+        String author = authorOf(position);
+        if (mStore.isFailed(position)) {
+            holder.authorName.setText(author + " - " + mActivity.getString(R.string.message_not_sent));
+            holder.authorName.setTextColor(Color.RED);
+            holder.body.setAlpha(1f);
         } else {
-
-            //  If message belongs to the other user, change the layout of entire row to align to the left and change the color of the Author name to blue
-            holder.params.gravity = Gravity.START;
-            holder.authorName.setTextColor(Color.BLUE);
-            // Wrapping chat message in speech bubble
-            holder.body.setBackgroundResource(R.drawable.bubble1);  // bubble1.9.png --> Image file of type 9 patch
+            // Our messages say how many others have read them, worked out from everyone's read mark
+            int readers = mStore.isMe(position) && !mStore.isPending(position) ? mReceipts.readersOf(position) : 0;
+            holder.authorName.setText(readers > 0 ? mActivity.getString(R.string.message_seen_by, author, readers) : author);
+            holder.authorName.setTextColor(holder.authorColor);
+            holder.body.setAlpha(mStore.isPending(position) ? 0.5f : 1f);
         }
+    }
 
-        holder.authorName.setLayoutParams(holder.params);
-        holder.body.setLayoutParams(holder.params);
+    /*
+        Rebinds the author line of the rows from first to last that are on screen or just off it, the others are bound
+        from scratch anyway when they scroll in. Before the list is attached every one of them is rebound.
+     */
+    private void notifyAuthorChanged(int first, int last) {
+        if (mLayoutManager != null) {
+            int firstVisible = mLayoutManager.findFirstVisibleItemPosition();
+            if (firstVisible == RecyclerView.NO_POSITION) return;
+            first = Math.max(first, firstVisible - OFF_SCREEN_ROWS);
+            last = Math.min(last, mLayoutManager.findLastVisibleItemPosition() + OFF_SCREEN_ROWS);
+        }
+        first = Math.max(first, 0);
+        last = Math.min(last, getItemCount() - 1);
+        if (first <= last) notifyItemRangeChanged(first, last - first + 1, PAYLOAD_AUTHOR);
+    }
 
-        /*
-            9 patch image file defines a set of pixels which can be stretched in any direction.
-            It helps in creating a speech bubble effect and cover the entire chat message regardless if the message is short or long
+    // The author's current display name. Old messages carry the name itself. Empty while the name is on its way.
+    private String authorOf(int position) {
+        String uid = mStore.getAuthorUid(position);
+        String name = uid != null ? mProfiles.getName(uid) : mStore.getAuthorName(position);
+        return name != null ? name : "";
+    }
 
-            9 Patch Graphics --> https://developer.android.com/guide/topics/graphics/drawables#nine-patch
-            Creating 9 Patch Graphics --> https://developer.android.com/studio/write/draw9patch
-         */
+    private void prefetchText(int from, int to) {
+        int last = Math.min(to, mStore.size() - 1);
+        for (int i = Math.max(from, 0); i <= last; i++) {
+            String key = mStore.getKey(i);
+            // Checking first, so bodies that are already measured aren't decoded again
+            if (!mTextCache.isKnown(key)) mTextCache.prefetch(key, mStore.getBody(i));
+        }
     }
 
 
     /*
-        Calling method to stop checking for new events on the firebase's database so that we can free up resources when we don't need them anymore
+        Called when the activity goes away. The messages stay in the ChatRepository, we only stop being told about changes.
      */
     void cleanup() {
-        // Removes the firebase event listener when the app leaves the foreground
-        mDatabaseReference.removeEventListener(mListener);
+        mStore.removeListener(mStoreListener);
+        mProfiles.removeListener(mProfileListener);
+        mReceipts.removeListener(mReadListener);
+        mTextCache.shutdown();
     }
 
 
@@ -0,0 +1,68 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/*
+    Latency histograms of every step a message goes through, for the whole app process.
+
+      - send->ack:  from the user pressing send until Firebase confirmed the write (OutboundQueue)
+      - send->echo: from another user pressing send until their message was applied to our list.
+                    Both ends use the ServerClock, so the two phones' clocks don't have to agree.
+      - decode:     turning one DataSnapshot into an InstantMessage (MessageDecoder)
+      - bind:       one onBindViewHolder() (ChatListAdapter)
+      - frame:      the time between two frames on the main thread, only measured during a load test (FrameMonitor)
+      - main-queue: how long a message injected by the LoadGenerator waited for the main thread
+      - first-message: from MainChatActivity.onCreate() until the first frame with a message in it, see StartupTrace
+      - search:     one query over the room's SearchIndex, on the MessageSearch thread
+
+    The numbers can be read on the MetricsActivity screen (long press the send button in a debug build) or dumped with
+        adb shell dumpsys activity com.shubhamnegi.flashchatnewfirebase/.MainChatActivity
+    so they can be compared from one release to the next.
+ */
+class ChatMetrics {
+
+    private static final ChatMetrics sInstance = new ChatMetrics();
+
+    final LatencyHistogram sendToAck = new LatencyHistogram("send->ack");
+    final LatencyHistogram sendToEcho = new LatencyHistogram("send->echo");
+    final LatencyHistogram decode = new LatencyHistogram("decode");
+    final LatencyHistogram bind = new LatencyHistogram("bind");
+    final LatencyHistogram frame = new LatencyHistogram("frame");
+    final LatencyHistogram mainQueue = new LatencyHistogram("main-queue");
+    final LatencyHistogram firstMessage = new LatencyHistogram("first-message");
+    final LatencyHistogram search = new LatencyHistogram("search");
+
+    private ChatMetrics() {
+    }
+
+    static ChatMetrics get() {
+        return sInstance;
+    }
+
+    LatencyHistogram[] getHistograms() {
+        return new LatencyHistogram[]{sendToAck, sendToEcho, decode, bind, frame, mainQueue, firstMessage, search};
+    }
+
+    void reset() {
+        for (LatencyHistogram histogram : getHistograms()) {
+            histogram.reset();
+        }
+    }
+
+    // One line per histogram, prefixed like the rest of a dumpsys output
+    void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Chat latencies:");
+        for (LatencyHistogram histogram : getHistograms()) {
+            writer.println(prefix + "  " + histogram);
+        }
+    }
+
+    String dump() {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        dump("", writer);
+        writer.flush();
+        return out.toString();
+    }
+}
@@ -0,0 +1,471 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Owns the messages of the open chat room for as long as the app process lives, independently of any Activity.
+    Switching to another room (see ChatRooms) releases it and a new repository is made for the new room.
+
+    MainChatActivity used to build a new ChatListAdapter in onStart() and throw it away in onStop(), so every trip to the
+    background (and every configuration change) replayed the whole history from Firebase. The repository keeps the decoded
+    messages in its MessageStore instead. When the chat comes back to the foreground it only listens for messages after
+    the newest one it already has, so returning is instant and costs no bandwidth when nothing new was sent.
+
+    Edits and deletes of older messages that happen while the chat is in the background are not picked up on return,
+    that would mean downloading every loaded page again.
+
+    Messages the user sends go through the OutboundQueue and are added to the store right away in a pending state.
+    The queue tells us when the write went through or failed, and the listeners' copy lands on the same row by push key.
+
+    While the chat is started it also keeps every member's read mark of the room, and moves ours as the user reads,
+    see ReadReceipts.
+
+    Every applied batch is also written to the MessageCache and indexed for search by the MessageSearch.
+    Only the bodies of the messages around the part of the chat that's shown are kept in memory, see MessageWindow.
+    After the process was killed, the first start() draws the cached messages right away and then only asks Firebase
+    for the messages after the newest cached one.
+
+    The pipeline, all owned here:
+      ChatHistoryPager (ChatTransport subscriptions)
+        --> MessageDecoder (background thread)
+        --> ChatUpdateBatcher (once per frame)
+        --> MessageStore + MessageCache + MessageSearch
+ */
+class ChatRepository {
+
+    // How long incoming messages are collected before the list is refreshed. FRAME_ALIGNED refreshes once per frame.
+    static final long BATCH_WINDOW_MILLIS = ChatUpdateBatcher.FRAME_ALIGNED;
+
+    // Messages per time range request while jumping back to a date
+    private static final int JUMP_PAGE_SIZE = 200;
+
+    // Told where a jumpTo() landed, on the main thread
+    interface JumpCallback {
+        // Position in the store of the first message at or after the time, or the store's size if there is none
+        void onJumped(int position);
+
+        // A time range couldn't be loaded, the jump is given up
+        void onFailed(String reason);
+    }
+
+    // Told about every message loadMessages() was asked for, on the main thread
+    interface MessageLoadCallback {
+        // message is null if it couldn't be found or read
+        void onMessageLoaded(String key, InstantMessage message);
+    }
+
+    private static ChatRepository sInstance;
+
+    private final String mUid;
+    private final String mDisplayName;
+    private final String mRoom;
+    private final ChatTransport mTransport;
+    private final MessageStore mStore;
+    private final ChatHistoryPager mPager;
+    private final MessageDecoder mDecoder;
+    private final ChatUpdateBatcher<ChatEvent> mBatcher;
+    private final MessageCache mCache;
+    private final OutboundQueue mOutbox;
+    private final MessageSearch mSearch;
+    private final MessageWindow mWindow;
+    private final ReadReceipts mReceipts;
+    private final ServerClock mClock;
+
+    private boolean mStarted;
+    private boolean mEverStarted;
+    // Set by release(), the executors are shut down and nothing can be started or sent anymore
+    private boolean mReleased;
+    private boolean mCacheLoaded;
+    // Server time of the last start(), older messages are history and don't say anything about delivery latency
+    private long mListeningSince;
+
+    // The jump in progress, see jumpTo()
+    private long mJumpTime;
+    private JumpCallback mJumpCallback;
+    // Oldest message of the last time range, the next step waits until it's in the store
+    private String mJumpWaitKey;
+    private boolean mJumpComplete;
+    // End of the last time range asked for, NO_TIME before the first one
+    private long mJumpEndAt;
+
+    // The pager owns the ChildEventListeners and hands us every event of the pages it loaded
+    private ChatHistoryPager.Callback mListener = new ChatHistoryPager.Callback() {
+        @Override
+        public void onChatEvent(ChatEvent event) {
+            // The snapshot is turned into an InstantMessage on the decoder thread, never on the main thread
+            mDecoder.submit(event);
+        }
+    };
+
+    // Called on the decoder thread for every decoded event
+    private MessageDecoder.Sink mDecoderSink = new MessageDecoder.Sink() {
+        @Override
+        public void onDecoded(ChatEvent event) {
+            // Not refreshing the list here, the batcher publishes all the events that arrived within the same frame at once
+            mBatcher.offer(event);
+        }
+    };
+
+    // Shows our own messages before Firebase has them, and their send state
+    private OutboundQueue.Listener mOutboxListener = new OutboundQueue.Listener() {
+        @Override
+        public void onQueued(String key, InstantMessage message) {
+            mStore.addLocal(key, message);
+        }
+
+        @Override
+        public void onWritten(String key) {
+            mStore.markSent(key);
+        }
+
+        @Override
+        public void onFailed(String key, boolean retrying) {
+            // A write that's retried is still on its way, the row stays pending. Only a dropped message is shown as not sent.
+            if (!retrying) mStore.markFailed(key);
+        }
+    };
+
+    // Called once per flush with every event that arrived since the previous one
+    private ChatUpdateBatcher.Sink<ChatEvent> mBatchSink = new ChatUpdateBatcher.Sink<ChatEvent>() {
+        @Override
+        public void onBatch(List<ChatEvent> batch) {
+            recordEchoLatencies(batch);
+            mStore.apply(batch);
+            mWindow.onStoreChanged();
+            mCache.write(batch);
+            mSearch.index(batch);
+            continueJump();
+            Log.d("FlashChat", "Merged " + batch.size() + " events into one refresh: " + mBatcher + " " + mDecoder);
+        }
+    };
+
+    /*
+        Returns the repository of the signed in user's room, creating it the first time.
+        Has to be called on the main thread. A different uid means a different user signed in,
+        so the previous user's messages are dropped. So are they when switching to another room or to another kind of
+        transport, e.g. to the LoopbackTransport for a load test. The transport is only used if a new repository is made.
+     */
+    static ChatRepository getInstance(Context context, ChatTransport transport, String room, String uid, String displayName) {
+        if (sInstance != null && (!sameName(sInstance.mUid, uid)
+                || !sInstance.mRoom.equals(room)
+                || sInstance.mTransport.getClass() != transport.getClass())) {
+            sInstance.release();
+            sInstance = null;
+        }
+        if (sInstance == null) {
+            sInstance = new ChatRepository(context, transport, room, uid, displayName, BATCH_WINDOW_MILLIS);
+        }
+        return sInstance;
+    }
+
+    /*
+        The same, for the room the user last opened and with the transport the app is configured for: Firebase, or in
+        debug builds the in-memory backend the LoadGenerator talks to if it was switched on in the MetricsActivity.
+     */
+    static ChatRepository getInstance(Context context, String uid, String displayName) {
+        String room = ChatRooms.getCurrent(context);
+        return getInstance(context, newTransport(context, room), room, uid, displayName);
+    }
+
+    /*
+        False once the repository was released, or if getInstance() would make another one now: another room was picked,
+        or the loopback backend was switched on or off. An Activity holding a repository that isn't current starts over.
+     */
+    boolean isCurrent(Context context) {
+        String room = ChatRooms.getCurrent(context);
+        return !mReleased && mRoom.equals(room) && newTransport(context, room).getClass() == mTransport.getClass();
+    }
+
+    // A transport for the room, of the kind the app is configured for
+    static ChatTransport newTransport(Context context, String room) {
+        return BuildConfig.DEBUG && LoopbackTransport.isEnabled(context)
+                ? LoopbackTransport.getInstance()
+                : new FirebaseTransport(FirebaseDatabase.getInstance().getReference(), room);
+    }
+
+    // displayName is only needed to recognise the user's messages from before uids, see MessageStore
+    private ChatRepository(Context context, ChatTransport transport, String room, String uid, String displayName, long batchWindowMillis) {
+        mUid = uid;
+        mDisplayName = displayName;
+        mRoom = room;
+        mTransport = transport;
+        mClock = new ServerClock(transport);
+        mCache = new MessageCache(context, room, transport.isPersistent(), MessageCache.DEFAULT_MAX_MESSAGES);
+        mStore = new MessageStore(uid, displayName);
+        mSearch = new MessageSearch(context, room, transport.isPersistent());
+        mWindow = new MessageWindow(context, mStore, new MessageSpill(context, room), MessageWindow.DEFAULT_WINDOW_SIZE);
+        mReceipts = new ReadReceipts(context, transport, mStore, room, uid);
+        // The batcher has to exist before the listener is attached, Firebase may start replaying messages right away
+        mBatcher = new ChatUpdateBatcher<>(mBatchSink, batchWindowMillis);
+        mDecoder = new MessageDecoder(transport, mDecoderSink);
+
+        // Only the newest screenful is downloaded when the chat opens, older pages are fetched after it's shown and while scrolling up
+        mPager = new ChatHistoryPager(transport, ChatHistoryPager.DEFAULT_FIRST_PAGE_SIZE, ChatHistoryPager.DEFAULT_PAGE_SIZE, mListener);
+        // Messages left unsent when the app was last killed go out as soon as the repository exists
+        mOutbox = new OutboundQueue(context, transport, room);
+        mOutbox.setListener(mOutboxListener);
+    }
+
+    // Queues a message typed by the signed in user, it arrives back through the listeners like any other message
+    void send(String text) {
+        if (mReleased) {
+            Log.w("FlashChat", "Not sending to released room " + mRoom);
+            return;
+        }
+        mOutbox.enqueue(InstantMessage.fromUser(mUid, text, mClock.now()));
+    }
+
+    // Starts listening to Firebase. The first time the newest page is loaded, afterwards only newer messages are.
+    void start() {
+        if (mStarted) return;
+        if (mReleased) {
+            Log.w("FlashChat", "Not starting released room " + mRoom);
+            return;
+        }
+        mStarted = true;
+        mListeningSince = mClock.now();
+        mWindow.reset();
+        mReceipts.start();
+
+        if (!mEverStarted) {
+            mEverStarted = true;
+            mCache.load(mCacheCallback);
+        } else if (!mCacheLoaded) {
+            // Still reading the cache, mCacheCallback starts the pager once it's done
+        } else {
+            // Our own unconfirmed messages don't count, their keys were made on this device
+            String lastSeenKey = mStore.getLastSyncedKey();
+            Log.d("FlashChat", "Resuming chat after " + lastSeenKey + " with " + mStore.size() + " messages kept");
+            mPager.resume(lastSeenKey);
+        }
+    }
+
+    // Draws the cached messages, then syncs only what was sent after the newest of them
+    private MessageCache.LoadCallback mCacheCallback = new MessageCache.LoadCallback() {
+        @Override
+        public void onLoaded(List<ChatEvent> events) {
+            mCacheLoaded = true;
+            if (!events.isEmpty()) {
+                mStore.apply(events);
+                mPager.restore(events.get(0).key);
+            }
+            if (!mStarted) return;
+
+            if (events.isEmpty()) {
+                mPager.start();
+            } else {
+                mPager.resume(events.get(events.size() - 1).key);
+            }
+        }
+    };
+
+    // Stops listening to Firebase but keeps every message that was loaded
+    void stop() {
+        if (!mStarted) return;
+        mStarted = false;
+        mJumpCallback = null;
+        mPager.stop();
+        mReceipts.stop();
+    }
+
+    /*
+        Loads every message from serverTime up to the oldest loaded one, then reports where the first message at or after
+        serverTime is in the store. The messages are fetched by their server timestamp, JUMP_PAGE_SIZE at a time,
+        so only the slice between the date and what's already loaded is downloaded.
+        One jump at a time, a new one replaces the previous. It's dropped if the chat is stopped before it's done.
+     */
+    void jumpTo(long serverTime, JumpCallback callback) {
+        mJumpTime = serverTime;
+        mJumpCallback = callback;
+        mJumpWaitKey = null;
+        mJumpComplete = false;
+        mJumpEndAt = MessageStore.NO_TIME;
+        continueJump();
+    }
+
+    // Takes the next step of the jump. Called again after every applied batch, until the jump is done.
+    private void continueJump() {
+        if (mJumpCallback == null) return;
+        // The last range is still on its way through the decoder
+        if (mJumpWaitKey != null && mStore.indexOf(mJumpWaitKey) < 0) return;
+
+        long oldest = oldestServerTime();
+        long endAt = oldest == MessageStore.NO_TIME ? mClock.now() : oldest;
+        /*
+            endAt is included, and all the messages of one OutboundQueue write share a server timestamp. If a full range
+            was nothing but those, the next one would ask for the same messages again. The jump stops there instead:
+            paging back by key from the oldest loaded message gets the rest of them.
+         */
+        boolean stuck = mJumpEndAt != MessageStore.NO_TIME && endAt >= mJumpEndAt;
+        if (mJumpComplete || stuck || mPager.hasReachedStart() || (oldest != MessageStore.NO_TIME && oldest <= mJumpTime)) {
+            JumpCallback callback = mJumpCallback;
+            mJumpCallback = null;
+            callback.onJumped(mStore.positionAt(mJumpTime));
+            return;
+        }
+
+        final JumpCallback callback = mJumpCallback;
+        // If a page is on its way already, the batch it brings calls us again
+        boolean requested = mPager.loadTimeRange(mJumpTime, endAt, JUMP_PAGE_SIZE, new ChatTransport.PageCallback() {
+            @Override
+            public void onPageLoaded(String oldestKey, int count) {
+                mJumpWaitKey = oldestKey;
+                // Fewer than asked for means everything from the date on is here
+                mJumpComplete = count < JUMP_PAGE_SIZE;
+                continueJump();
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                // Unless the jump was replaced or dropped in the meantime
+                if (mJumpCallback != callback) return;
+                mJumpCallback = null;
+                callback.onFailed(reason);
+            }
+        });
+        if (requested) mJumpEndAt = endAt;
+    }
+
+    /*
+        Loads messages by push key, e.g. the search hits that are shown (the SearchIndex only keeps keys).
+        The store has the ones loaded around the part of the chat that's shown, the MessageCache the newest ones,
+        and whatever neither has is read from the transport one by one.
+     */
+    void loadMessages(List<String> keys, final MessageLoadCallback callback) {
+        // The cache can't be read anymore, the SearchActivity of a released room is about to be left anyway
+        if (mReleased) return;
+        final List<String> notInStore = new ArrayList<>();
+        for (String key : keys) {
+            int position = mStore.indexOf(key);
+            if (position < 0 || mStore.isEvicted(position)) {
+                notInStore.add(key);
+                continue;
+            }
+            callback.onMessageLoaded(key, new InstantMessage(mStore.getBody(position), mStore.getAuthorName(position),
+                    mStore.getAuthorUid(position), null, null));
+        }
+        if (notInStore.isEmpty()) return;
+
+        mCache.loadMessages(notInStore, new MessageCache.MessagesCallback() {
+            @Override
+            public void onLoaded(Map<String, InstantMessage> messages) {
+                for (final String key : notInStore) {
+                    InstantMessage message = messages.get(key);
+                    if (message != null) {
+                        callback.onMessageLoaded(key, message);
+                        continue;
+                    }
+                    mTransport.readMessage(key, new ChatTransport.MessageCallback() {
+                        @Override
+                        public void onMessage(InstantMessage message) {
+                            callback.onMessageLoaded(key, message);
+                        }
+
+                        @Override
+                        public void onFailed(String reason) {
+                            Log.w("FlashChat", "Could not read message " + key + ": " + reason);
+                            callback.onMessageLoaded(key, null);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    // Timestamp of the oldest loaded message that has one
+    private long oldestServerTime() {
+        for (int i = 0; i < mStore.size(); i++) {
+            long time = mStore.getServerTime(i);
+            if (time != MessageStore.NO_TIME) return time;
+        }
+        return MessageStore.NO_TIME;
+    }
+
+    /*
+        How long messages of other users took from their send button to our list. Our own messages are left out,
+        Firebase shows them to us locally before they reach the server.
+     */
+    private void recordEchoLatencies(List<ChatEvent> batch) {
+        long now = mClock.now();
+        for (ChatEvent event : batch) {
+            if (event.type != ChatEvent.ADDED) continue;
+            Long sentAt = event.message.getSentAt();
+            if (sentAt == null || sentAt < mListeningSince || sameName(event.message.getUid(), mUid)) continue;
+            ChatMetrics.get().sendToEcho.recordMillis(now - sentAt);
+        }
+    }
+
+    private void release() {
+        stop();
+        mReleased = true;
+        mDecoder.shutdown();
+        mBatcher.cancel();
+        mOutbox.release();
+        mStore.setListener(null);
+        mCache.release();
+        mSearch.close();
+        mWindow.release();
+        mClock.release();
+    }
+
+    String getRoom() {
+        return mRoom;
+    }
+
+    MessageStore getStore() {
+        return mStore;
+    }
+
+    // Full-text search over the messages of the room this device has seen
+    MessageSearch getSearch() {
+        return mSearch;
+    }
+
+    // Which message bodies are kept in memory
+    MessageWindow getWindow() {
+        return mWindow;
+    }
+
+    // Who read how far, and how far we read
+    ReadReceipts getReadReceipts() {
+        return mReceipts;
+    }
+
+    ChatHistoryPager getPager() {
+        return mPager;
+    }
+
+    // Counters of how many listener events each refresh merged
+    ChatUpdateBatcher<ChatEvent> getBatcher() {
+        return mBatcher;
+    }
+
+    // Per-message decode timings
+    MessageDecoder getDecoder() {
+        return mDecoder;
+    }
+
+    ChatTransport getTransport() {
+        return mTransport;
+    }
+
+    ServerClock getClock() {
+        return mClock;
+    }
+
+    // Queue depth, write latency and retry counts of outgoing messages
+    OutboundQueue getOutbox() {
+        return mOutbox;
+    }
+
+    private static boolean sameName(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
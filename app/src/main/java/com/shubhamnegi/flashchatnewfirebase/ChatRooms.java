@@ -0,0 +1,56 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/*
+    The chat room the user has open, remembered across launches. Everyone starts out in DEFAULT_ROOM.
+
+    A room name becomes part of Firebase paths and of the name of its cache file, so only letters, digits, "-" and "_" are allowed.
+
+    For the unread counts of the room list, every room remembers how many of its messages the user has read.
+    The chat works it out from the user's read mark whenever that moves, see ReadReceipts. It's kept on the device only,
+    so it's only known for rooms opened here.
+ */
+class ChatRooms {
+
+    static final String DEFAULT_ROOM = "general";
+    static final int MAX_NAME_LENGTH = 32;
+
+    private static final String CURRENT_ROOM_KEY = "current_room";
+    private static final String SEEN_COUNT_KEY_PREFIX = "seen_count_";
+
+    private ChatRooms() {
+    }
+
+    static String getCurrent(Context context) {
+        String room = prefs(context).getString(CURRENT_ROOM_KEY, null);
+        return isValidName(room) ? room : DEFAULT_ROOM;
+    }
+
+    // Takes effect the next time the chat opens, see ChatRepository.getInstance()
+    static void setCurrent(Context context, String room) {
+        SharedPreferences.Editor editor = prefs(context).edit();
+        editor.putString(CURRENT_ROOM_KEY, room);
+        editor.apply();
+    }
+
+    // How many of the room's messages the user has read, see RoomSummary.unreadSince()
+    static long getSeenCount(Context context, String room) {
+        return prefs(context).getLong(SEEN_COUNT_KEY_PREFIX + room, 0);
+    }
+
+    static void setSeenCount(Context context, String room, long count) {
+        SharedPreferences.Editor editor = prefs(context).edit();
+        editor.putLong(SEEN_COUNT_KEY_PREFIX + room, count);
+        editor.apply();
+    }
+
+    static boolean isValidName(String room) {
+        return room != null && !room.isEmpty() && room.length() <= MAX_NAME_LENGTH && room.matches("[A-Za-z0-9_-]+");
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(RegisterActivity.CHAT_PREFS, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,70 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+/*
+    Watches the chat list while the user scrolls up and asks the pager for the next older page early enough
+    that it has arrived before the top of the list is reached.
+
+    The faster the user flings, the further ahead we prefetch: the look-ahead distance is the number of rows
+    the list will travel in PREFETCH_LOOKAHEAD_SECONDS at the current (smoothed) scroll velocity.
+
+    Rows inserted above the first visible one don't move the content on screen, LinearLayoutManager keeps its anchor row in place.
+    The pager only keeps the listeners of the last pages it loaded attached (ChatHistoryPager.MAX_LIVE_PAGES),
+    so scrolling far back doesn't pile up listeners.
+ */
+class ChatScrollPrefetcher extends RecyclerView.OnScrollListener {
+
+    // Always start loading when we are this close to the oldest loaded message
+    private static final int MIN_ROWS_AHEAD = 10;
+    // Roughly how long a page takes to come back from Firebase
+    private static final float PREFETCH_LOOKAHEAD_SECONDS = 1.5f;
+    // Weight of the newest velocity sample, the rest comes from the previous estimate
+    private static final float VELOCITY_SMOOTHING = 0.3f;
+
+    private final ChatHistoryPager mPager;
+
+    private int mLastFirstVisible = RecyclerView.NO_POSITION;
+    private long mLastSampleTime;
+    // Rows per second, positive while scrolling up towards older messages
+    private float mVelocity;
+
+    ChatScrollPrefetcher(RecyclerView recyclerView, ChatHistoryPager pager) {
+        mPager = pager;
+        recyclerView.addOnScrollListener(this);
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) mVelocity = 0;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        if (layoutManager == null) return;
+        int firstVisible = layoutManager.findFirstVisibleItemPosition();
+        if (firstVisible == RecyclerView.NO_POSITION) return;
+
+        long now = SystemClock.uptimeMillis();
+        // dy < 0 means the content moves down, i.e. the user is scrolling up towards older messages
+        if (mLastFirstVisible != RecyclerView.NO_POSITION && now > mLastSampleTime && dy != 0) {
+            float sample = Math.abs(mLastFirstVisible - firstVisible) * 1000f / (now - mLastSampleTime);
+            if (dy > 0) sample = -sample;
+            mVelocity += VELOCITY_SMOOTHING * (sample - mVelocity);
+        }
+        mLastFirstVisible = firstVisible;
+        mLastSampleTime = now;
+
+        if (layoutManager.getItemCount() == 0 || mPager.isLoadingOlder() || mPager.hasReachedStart()) return;
+
+        int rowsAhead = Math.max(MIN_ROWS_AHEAD, (int) (Math.max(mVelocity, 0) * PREFETCH_LOOKAHEAD_SECONDS));
+        if (firstVisible <= rowsAhead) {
+            mPager.loadOlder();
+        }
+    }
+}
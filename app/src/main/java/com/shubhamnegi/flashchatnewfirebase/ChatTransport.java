@@ -0,0 +1,139 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import java.util.Map;
+
+/*
+    Everything the chat needs from its backend: pushing messages, subscribing to new ones and querying pages of older ones,
+    how far every member has read and the members' display names.
+    A transport serves a single chat room, the ChatRepository makes a new one for every room.
+
+    Messages are ordered by push key. They also carry the server's timestamp, which time ranges are queried by.
+    Every callback arrives on the main thread, like Firebase's do.
+
+    Backends:
+      - FirebaseTransport: the real one, Firebase Realtime Database queries on the room's day buckets
+      - LoopbackTransport: an in-memory backend for load tests without a Firebase project, see LoadGenerator.
+        It has only one room, whichever room the chat opens shows the same messages.
+ */
+interface ChatTransport {
+
+    // Receives the events of one subscription, their payload is decoded later with decode()
+    interface Listener {
+        void onEvent(ChatEvent event);
+
+        void onCancelled(String reason);
+    }
+
+    // Called once a page's initial messages were all delivered
+    interface PageCallback {
+        // oldestKey is null if the page was empty
+        void onPageLoaded(String oldestKey, int count);
+
+        void onFailed(String reason);
+    }
+
+    interface KeyCallback {
+        // key is null if there are no messages at all
+        void onKey(String key);
+
+        void onFailed(String reason);
+    }
+
+    interface MessageCallback {
+        // message is null if there is no message with that key (any more)
+        void onMessage(InstantMessage message);
+
+        void onFailed(String reason);
+    }
+
+    interface WriteCallback {
+        void onWritten();
+
+        // permanent is true if writing the same messages again can't succeed, e.g. the rules reject them
+        void onFailed(String reason, boolean permanent);
+    }
+
+    interface OffsetListener {
+        void onServerTimeOffset(long offsetMillis);
+    }
+
+    // Receives the read marks of the room's members, see ReadReceipts
+    interface ReadMarkListener {
+        // key is null if the user's mark was removed
+        void onReadMark(String uid, String key);
+
+        void onCancelled(String reason);
+    }
+
+    interface CountListener {
+        void onCount(long count);
+    }
+
+    // name is null if the user never published one
+    interface NameListener {
+        void onDisplayName(String name);
+    }
+
+    interface Subscription {
+        void cancel();
+    }
+
+    // Reads the key of the newest message once
+    void readNewestKey(KeyCallback callback);
+
+    /*
+        The newest limit messages with a key up to endKey (included or not), followed by every later change to them.
+        The window doesn't move: messages added after it are never delivered to this subscription.
+     */
+    Subscription subscribePage(String endKey, boolean inclusive, int limit, Listener listener, PageCallback loaded);
+
+    /*
+        The newest limit messages the server stored between startAt and endAt (milliseconds since the epoch, both included),
+        followed by every later change to them. oldestKey of the callback is the one with the oldest timestamp.
+        Messages without a timestamp are never part of a range.
+     */
+    Subscription subscribeTimeRange(long startAt, long endAt, int limit, Listener listener, PageCallback loaded);
+
+    /*
+        Every message with a key after afterKey, the existing ones and all future ones.
+        With afterKey null the room was empty when it was opened, only the messages written from about now on are wanted.
+     */
+    Subscription subscribeAfter(String afterKey, Listener listener);
+
+    // Reads one message once, by its push key
+    void readMessage(String key, MessageCallback callback);
+
+    // A new push key, generated locally. Nothing is written.
+    String newKey();
+
+    /*
+        Writes all the messages at once, keyed by push key.
+        mayBeStored says an earlier write of some of them may have gone through already (a retry, or messages restored
+        from the outbox). Writing a message again is harmless, but it must not be counted in the room's summary twice.
+     */
+    void write(Map<String, InstantMessage> messages, boolean mayBeStored, WriteCallback callback);
+
+    // Every member's read mark, the existing ones and every later change
+    Subscription subscribeReadMarks(ReadMarkListener listener);
+
+    // Sets the user's read mark to the push key of the newest message they have seen. One write, whatever they read.
+    void writeReadMark(String uid, String key);
+
+    // How many messages the room has, now and whenever it changes
+    Subscription subscribeMessageCount(CountListener listener);
+
+    // The display name the user with this uid published, and every later change of it. Names are the same in every room.
+    Subscription subscribeDisplayName(String uid, NameListener listener);
+
+    // Publishes the signed in user's display name for everyone else, see ProfileCache
+    void publishDisplayName(String uid, String name);
+
+    // How far the device clock is off from the server's, reported now and whenever it changes
+    Subscription subscribeServerTimeOffset(OffsetListener listener);
+
+    // Turns the payload of an event into a message, or null if it isn't one. Called on the decoder thread.
+    InstantMessage decode(Object raw);
+
+    // False if the messages are gone when the process dies. Nothing is then cached or queued on disk, it would be stale next time.
+    boolean isPersistent();
+}
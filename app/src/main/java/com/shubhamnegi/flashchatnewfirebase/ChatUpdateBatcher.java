@@ -0,0 +1,125 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.List;
+
+/*
+    Sits between the Firebase listener and the adapter and publishes incoming updates in batches.
+
+    When the ChildEventListener is attached, Firebase replays the whole "messages" node one child at a time.
+    Calling notifyDataSetChanged() for every single child makes the list re-layout thousands of times on the main thread,
+    so instead we queue the updates and hand them over once per frame (or once per configurable window).
+
+    The queueing itself lives in the core module's UpdateQueue, this class only decides when to drain it.
+
+    Choreographer --> https://developer.android.com/reference/android/view/Choreographer
+ */
+class ChatUpdateBatcher<T> {
+
+    // Receives every flushed batch on the main thread, in the order the updates were offered
+    interface Sink<T> {
+        void onBatch(List<T> batch);
+    }
+
+    // A window of 0 means the batch is flushed right before the next frame is drawn
+    static final long FRAME_ALIGNED = 0;
+
+    private final Sink<T> mSink;
+    private final long mWindowMillis;
+    private final Handler mMainHandler;
+    private final Choreographer mChoreographer;
+
+    private final UpdateQueue<T> mQueue = new UpdateQueue<>();
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flush();
+        }
+    };
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // Choreographer callbacks can only be posted from the main thread, so offers from other threads hop over first
+    private final Runnable mPostFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mChoreographer.postFrameCallback(mFrameCallback);
+        }
+    };
+
+    // Has to be created on the main thread, Choreographer.getInstance() is bound to the calling thread's Looper
+    ChatUpdateBatcher(Sink<T> sink, long windowMillis) {
+        mSink = sink;
+        mWindowMillis = windowMillis;
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mChoreographer = Choreographer.getInstance();
+    }
+
+    // Queues an update. Safe to call from any thread.
+    void offer(T update) {
+        if (mQueue.offer(update)) scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (mWindowMillis > FRAME_ALIGNED) {
+            mMainHandler.postDelayed(mFlushRunnable, mWindowMillis);
+        } else if (Looper.myLooper() == Looper.getMainLooper()) {
+            mChoreographer.postFrameCallback(mFrameCallback);
+        } else {
+            mMainHandler.post(mPostFrameRunnable);
+        }
+    }
+
+    // Publishes everything queued so far. Must be called on the main thread.
+    void flush() {
+        List<T> batch = mQueue.drain();
+        if (!batch.isEmpty()) mSink.onBatch(batch);
+    }
+
+    // Drops anything still queued, used when the listener is detached
+    void cancel() {
+        mMainHandler.removeCallbacks(mFlushRunnable);
+        mMainHandler.removeCallbacks(mPostFrameRunnable);
+        mChoreographer.removeFrameCallback(mFrameCallback);
+        mQueue.clear();
+    }
+
+    long getFlushCount() {
+        return mQueue.getDrainCount();
+    }
+
+    long getEventCount() {
+        return mQueue.getEventCount();
+    }
+
+    int getLastBatchSize() {
+        return mQueue.getLastBatchSize();
+    }
+
+    int getMaxBatchSize() {
+        return mQueue.getMaxBatchSize();
+    }
+
+    // Average number of events merged into a single flush
+    float getAverageBatchSize() {
+        return mQueue.getAverageBatchSize();
+    }
+
+    @Override
+    public String toString() {
+        return "ChatUpdateBatcher{flushes=" + getFlushCount()
+                + ", events=" + getEventCount()
+                + ", lastBatch=" + getLastBatchSize()
+                + ", maxBatch=" + getMaxBatchSize()
+                + ", avgBatch=" + getAverageBatchSize() + "}";
+    }
+}
@@ -0,0 +1,47 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.app.Activity;
+import android.content.Context;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.google.firebase.analytics.FirebaseAnalytics;
+
+/*
+    Startup work the user doesn't wait for, moved behind the first frame.
+
+    afterFirstFrame() runs a task once the activity's first frame has been drawn: the pre-draw listener fires right
+    before that frame, and a task posted from there runs after it.
+
+    Analytics collection is switched off in the manifest (firebase_analytics_collection_enabled), so the SDK doesn't
+    do its session work while the first screen is being drawn. enableAnalytics() switches it back on afterwards.
+    Deferring analytics --> https://firebase.google.com/docs/analytics/configure-data-collection?platform=android
+ */
+class DeferredInit {
+
+    private static boolean sAnalyticsEnabled;
+
+    private DeferredInit() {
+    }
+
+    static void afterFirstFrame(Activity activity, final Runnable task) {
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                decorView.post(task);
+                return true;
+            }
+        });
+    }
+
+    // Has to be called on the main thread, does nothing after the first time
+    static void enableAnalytics(Context context) {
+        if (sAnalyticsEnabled) return;
+        sAnalyticsEnabled = true;
+        StartupTrace.get().begin("analytics");
+        FirebaseAnalytics.getInstance(context.getApplicationContext()).setAnalyticsCollectionEnabled(true);
+        StartupTrace.get().end();
+    }
+}
@@ -0,0 +1,617 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    The ChatTransport backed by the Firebase Realtime Database, for one chat room.
+
+    A room's messages are split into one bucket per day (see TimeBuckets), keyed by push key within the bucket:
+      room-messages/<room>/<day>/<push key>: the message
+      room-buckets/<room>/<day>: true, for every day that has messages
+      room-summaries/<room>: the newest message and the message count, for the room list (see RoomDirectory)
+      room-reads/<room>/<uid>: the push key of the newest message the user has read, see ReadReceipts
+      users/<uid>/displayName: the name every user publishes, for all rooms, see ProfileCache
+    The single "messages" node every client used to listen to grew with everything anyone ever wrote. Now a client
+    only listens to the days of the room it shows, and the small bucket index tells it which older days to ask for next.
+    The bucket of a message follows from its push key, so a key is all it takes to find a message or a page again.
+
+    The history from before rooms is still in the old "messages" node and is not copied anywhere. It's the beginning of the
+    default room (ChatRooms.DEFAULT_ROOM): its keys are older than those of every bucket, so once a page of that room
+    runs out of buckets it carries on in the old node with the same query. The rules only allow reading it now.
+
+    Within a bucket every query orders by key:
+      - a page is orderByKey().endAt(key) or endBefore(key), plus limitToLast(limit). If its bucket runs out of messages,
+        the page carries on in the next older bucket of the index until it's full or the room's first day was read.
+      - new messages are orderByKey().startAfter(key) in the bucket of key, and the whole of every later bucket.
+        A listener on the index attaches to the buckets of new days as soon as someone writes to them.
+        Without a key (the room was empty) only the buckets from yesterday on are listened to, the device clock may be
+        a little behind the server's. Older days can't get new messages.
+      - a time range is orderByChild("timestamp").startAt(from).endAt(to), plus limitToLast(limit), walking back
+        through the buckets from the day of "to" to the day of "from".
+        The ".indexOn" rule in database.rules.json lets the server answer it from an index instead of sending the whole bucket.
+    A page's ChildEventListeners stay attached so edits and deletes are reported. Its completion is found out with a single
+    value listener on the same query: value events fire after the initial child events and share the same data,
+    so nothing is downloaded twice.
+
+    Buckets go by the push key's time, the device clock corrected by Firebase's offset. A message written within
+    that skew of midnight may sit in the bucket next to the day of its server timestamp and be missed by a time range.
+
+    Structuring data --> https://firebase.google.com/docs/database/android/structure-data#flatten_data_structures
+
+    Query --> https://firebase.google.com/docs/reference/android/com/google/firebase/database/Query
+    Working with lists --> https://firebase.google.com/docs/database/android/lists-of-data#sorting_and_filtering_data
+ */
+class FirebaseTransport implements ChatTransport {
+
+    static final String MESSAGES = "room-messages";
+    static final String BUCKETS = "room-buckets";
+    static final String SUMMARIES = "room-summaries";
+    static final String READS = "room-reads";
+    // Where every message went before rooms
+    static final String LEGACY_MESSAGES = "messages";
+    static final String USERS = "users";
+    static final String DISPLAY_NAME = "displayName";
+
+    private final DatabaseReference mRoot;
+    private final String mRoom;
+    // The buckets of the room, one child per day
+    private final DatabaseReference mMessages;
+    // The index of the days that have messages
+    private final DatabaseReference mBuckets;
+    // One read mark per member
+    private final DatabaseReference mReads;
+    // The history from before rooms, only for the default room and null for the others
+    private final DatabaseReference mLegacy;
+
+    FirebaseTransport(DatabaseReference root, String room) {
+        mRoot = root;
+        mRoom = room;
+        // common error: typo in the db location
+        mMessages = root.child(MESSAGES).child(room);
+        mBuckets = root.child(BUCKETS).child(room);
+        mReads = root.child(READS).child(room);
+        mLegacy = ChatRooms.DEFAULT_ROOM.equals(room) ? root.child(LEGACY_MESSAGES) : null;
+    }
+
+    // Builds the query of one bucket for a BucketWalk, for at most limit messages. Messages is the bucket or the old node.
+    private interface BucketQuery {
+        Query inBucket(DatabaseReference messages, String bucket, int limit);
+    }
+
+    /*
+        Opens the connection to the database ahead of the first read, e.g. while the user is being signed in, so that
+        DNS, TLS and the handshake are done by the time the chat asks for its messages.
+        Getting a reference creates the connection. .info/connected is answered by the client itself and needs no
+        permission, it only tells us when the connection is up.
+        Detecting connection state --> https://firebase.google.com/docs/database/android/offline-capabilities#section-connection-state
+     */
+    static void prewarm() {
+        final DatabaseReference connected = FirebaseDatabase.getInstance().getReference(".info/connected");
+        connected.addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                if (Boolean.TRUE.equals(snapshot.getValue(Boolean.class))) {
+                    StartupTrace.get().mark("db-connected");
+                    connected.removeEventListener(this);
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+            }
+        });
+    }
+
+    // The newest day from the index, then the newest message of that day. Without any days, the newest message from before rooms.
+    @Override
+    public void readNewestKey(final KeyCallback callback) {
+        mBuckets.orderByKey().limitToLast(1).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                String newestBucket = firstKey(snapshot);
+                if (newestBucket == null && mLegacy == null) {
+                    callback.onKey(null);
+                    return;
+                }
+                DatabaseReference messages = newestBucket != null ? mMessages.child(newestBucket) : mLegacy;
+                messages.orderByKey().limitToLast(1).addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(@NonNull DataSnapshot snapshot) {
+                        callback.onKey(firstKey(snapshot));
+                    }
+
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) {
+                        callback.onFailed(error.getMessage());
+                    }
+                });
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                callback.onFailed(error.getMessage());
+            }
+        });
+    }
+
+    // The message is in the bucket of its key. In the default room a key that isn't there may be one from before rooms.
+    @Override
+    public void readMessage(final String key, final MessageCallback callback) {
+        mMessages.child(TimeBuckets.ofKey(key)).child(key).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                if (snapshot.exists() || mLegacy == null) {
+                    callback.onMessage(InstantMessage.fromValue(snapshot.getValue()));
+                    return;
+                }
+                mLegacy.child(key).addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(@NonNull DataSnapshot snapshot) {
+                        callback.onMessage(InstantMessage.fromValue(snapshot.getValue()));
+                    }
+
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) {
+                        callback.onFailed(error.getMessage());
+                    }
+                });
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                callback.onFailed(error.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public Subscription subscribePage(final String endKey, final boolean inclusive, int limit, Listener listener, PageCallback loaded) {
+        final String endBucket = TimeBuckets.ofKey(endKey);
+        BucketWalk walk = new BucketWalk(new BucketQuery() {
+            @Override
+            public Query inBucket(DatabaseReference messages, String bucket, int limit) {
+                Query page = messages.orderByKey();
+                // Only the bucket of endKey has messages after it, the older ones are read from their newest message on.
+                // The old node is always read up to endKey, clients from before rooms kept writing to it for a while.
+                if (bucket == null || bucket.equals(endBucket)) page = inclusive ? page.endAt(endKey) : page.endBefore(endKey);
+                return page.limitToLast(limit);
+            }
+        }, null, limit, listener, loaded);
+        walk.load(endBucket);
+        return walk;
+    }
+
+    // Index --> https://firebase.google.com/docs/database/security/indexing-data
+    @Override
+    public Subscription subscribeTimeRange(final long startAt, final long endAt, int limit, Listener listener, PageCallback loaded) {
+        BucketWalk walk = new BucketWalk(new BucketQuery() {
+            @Override
+            public Query inBucket(DatabaseReference messages, String bucket, int limit) {
+                return messages.orderByChild("timestamp").startAt(startAt).endAt(endAt).limitToLast(limit);
+            }
+        }, TimeBuckets.of(startAt), limit, listener, loaded);
+        walk.load(TimeBuckets.of(endAt));
+        return walk;
+    }
+
+    @Override
+    public Subscription subscribeAfter(String afterKey, Listener listener) {
+        final List<Subscription> subscriptions = new ArrayList<>();
+        Query laterBuckets = mBuckets.orderByKey();
+        if (afterKey != null) {
+            String bucket = TimeBuckets.ofKey(afterKey);
+            subscriptions.add(attach(mMessages.child(bucket).orderByKey().startAfter(afterKey), listener));
+            laterBuckets = laterBuckets.startAfter(bucket);
+        } else {
+            laterBuckets = laterBuckets.startAt(TimeBuckets.of(System.currentTimeMillis() - TimeBuckets.BUCKET_MILLIS));
+        }
+        // Every later day, the ones that have messages already and the ones that get their first message from now on
+        final Subscription bucketSubscription = attachBuckets(laterBuckets, subscriptions, listener);
+        return new Subscription() {
+            @Override
+            public void cancel() {
+                bucketSubscription.cancel();
+                for (Subscription subscription : subscriptions) {
+                    subscription.cancel();
+                }
+                subscriptions.clear();
+            }
+        };
+    }
+
+    // Attaches to the whole bucket of every day the query of the index reports
+    private Subscription attachBuckets(final Query buckets, final List<Subscription> subscriptions, final Listener listener) {
+        final ChildEventListener bucketListener = buckets.addChildEventListener(new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot dataSnapshot, String previousChildName) {
+                subscriptions.add(attach(mMessages.child(dataSnapshot.getKey()).orderByKey(), listener));
+            }
+
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot dataSnapshot, String previousChildName) {
+            }
+
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot dataSnapshot) {
+            }
+
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot dataSnapshot, String previousChildName) {
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                listener.onCancelled(databaseError.getMessage());
+            }
+        });
+        return new Subscription() {
+            @Override
+            public void cancel() {
+                buckets.removeEventListener(bucketListener);
+            }
+        };
+    }
+
+    @Override
+    public String newKey() {
+        // push() only generates the key locally, nothing is written yet
+        return mMessages.push().getKey();
+    }
+
+    /*
+        One multi-path update for all the messages, each into the bucket of its key, together with the index entries of those
+        buckets and the room's summary. Firebase applies it atomically, so the index never misses a day that has messages
+        and the summary never disagrees with the buckets.
+        The summary's fields are written one by one, so writes of different clients don't overwrite each other's count.
+        The count is added to on the server, ServerValue.increment() doesn't need to read it first.
+        A batch that may have been written before (mayBeStored) is only counted for the messages that aren't there yet.
+        Finding that out takes a read of each of its messages first, which only retried and restored batches pay for.
+        Firebase orders that read after any earlier write of ours, so it sees the earlier write if it went through.
+
+        Multi-path updates --> https://firebase.google.com/docs/database/android/read-and-write#update_specific_fields
+        Fan-out --> https://firebase.google.com/docs/database/android/structure-data#fanout
+     */
+    @Override
+    public void write(final Map<String, InstantMessage> messages, boolean mayBeStored, final WriteCallback callback) {
+        if (!mayBeStored) {
+            write(messages, messages.size(), callback);
+            return;
+        }
+        final int[] answers = new int[2];   // reads answered, messages found
+        for (String key : messages.keySet()) {
+            mMessages.child(TimeBuckets.ofKey(key)).child(key).addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot snapshot) {
+                    if (answers[0] < 0) return;
+                    answers[0]++;
+                    if (snapshot.exists()) answers[1]++;
+                    if (answers[0] == messages.size()) write(messages, messages.size() - answers[1], callback);
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError error) {
+                    if (answers[0] < 0) return;
+                    // Only the first failure is reported, the batch is retried as a whole
+                    answers[0] = -1;
+                    callback.onFailed(error.getMessage(), false);
+                }
+            });
+        }
+    }
+
+    // Writes the messages and adds newMessages to the room's count
+    private void write(Map<String, InstantMessage> messages, int newMessages, final WriteCallback callback) {
+        Map<String, Object> updates = new HashMap<>();
+        String newestKey = null;
+        for (Map.Entry<String, InstantMessage> entry : messages.entrySet()) {
+            String bucket = TimeBuckets.ofKey(entry.getKey());
+            updates.put(MESSAGES + "/" + mRoom + "/" + bucket + "/" + entry.getKey(), entry.getValue());
+            updates.put(BUCKETS + "/" + mRoom + "/" + bucket, true);
+            if (newestKey == null || entry.getKey().compareTo(newestKey) > 0) newestKey = entry.getKey();
+        }
+        if (newestKey != null) {
+            InstantMessage newest = messages.get(newestKey);
+            String summary = SUMMARIES + "/" + mRoom + "/";
+            updates.put(summary + "lastMessage", newest.getMessage());
+            updates.put(summary + "lastUid", newest.getUid());
+            updates.put(summary + "timestamp", ServerValue.TIMESTAMP);
+            if (newMessages > 0) updates.put(summary + "count", ServerValue.increment(newMessages));
+        }
+        mRoot.updateChildren(updates, new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(DatabaseError error, @NonNull DatabaseReference ref) {
+                if (error == null) {
+                    callback.onWritten();
+                } else {
+                    callback.onFailed(error.getMessage(), error.getCode() == DatabaseError.PERMISSION_DENIED);
+                }
+            }
+        });
+    }
+
+    // A ChildEventListener on the room's marks, so a member who reads only sends us their own mark
+    @Override
+    public Subscription subscribeReadMarks(final ReadMarkListener listener) {
+        final ChildEventListener marksListener = mReads.addChildEventListener(new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot dataSnapshot, String previousChildName) {
+                report(dataSnapshot);
+            }
+
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot dataSnapshot, String previousChildName) {
+                report(dataSnapshot);
+            }
+
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot dataSnapshot) {
+                listener.onReadMark(dataSnapshot.getKey(), null);
+            }
+
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot dataSnapshot, String previousChildName) {
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                listener.onCancelled(databaseError.getMessage());
+            }
+
+            private void report(DataSnapshot dataSnapshot) {
+                Object value = dataSnapshot.getValue();
+                listener.onReadMark(dataSnapshot.getKey(), value instanceof String ? (String) value : null);
+            }
+        });
+        return new Subscription() {
+            @Override
+            public void cancel() {
+                mReads.removeEventListener(marksListener);
+            }
+        };
+    }
+
+    // Offline the write waits in Firebase's queue, only the newest value of the mark goes out
+    @Override
+    public void writeReadMark(String uid, String key) {
+        mReads.child(uid).setValue(key);
+    }
+
+    // The count of the room's summary, which every write adds to
+    @Override
+    public Subscription subscribeMessageCount(final CountListener listener) {
+        final DatabaseReference countRef = mRoot.child(SUMMARIES).child(mRoom).child("count");
+        final ValueEventListener valueListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                Long count = snapshot.getValue(Long.class);
+                listener.onCount(count == null ? 0 : count);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+            }
+        };
+        countRef.addValueEventListener(valueListener);
+        return new Subscription() {
+            @Override
+            public void cancel() {
+                countRef.removeEventListener(valueListener);
+            }
+        };
+    }
+
+    // A value listener on the one name, a rename reaches every chat that shows the user's messages
+    @Override
+    public Subscription subscribeDisplayName(String uid, final NameListener listener) {
+        final DatabaseReference nameRef = mRoot.child(USERS).child(uid).child(DISPLAY_NAME);
+        final ValueEventListener valueListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                Object value = snapshot.getValue();
+                listener.onDisplayName(value instanceof String ? (String) value : null);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.d("FlashChat", "Profile listener cancelled: " + error.getMessage());
+            }
+        };
+        nameRef.addValueEventListener(valueListener);
+        return new Subscription() {
+            @Override
+            public void cancel() {
+                nameRef.removeEventListener(valueListener);
+            }
+        };
+    }
+
+    @Override
+    public void publishDisplayName(String uid, String name) {
+        mRoot.child(USERS).child(uid).child(DISPLAY_NAME).setValue(name);
+    }
+
+    /*
+        Firebase measures how far the device clock is off and publishes it at /.info/serverTimeOffset.
+        Clock skew --> https://firebase.google.com/docs/database/android/offline-capabilities#clock-skew
+     */
+    @Override
+    public Subscription subscribeServerTimeOffset(final OffsetListener listener) {
+        final DatabaseReference offsetRef = mRoot.getRoot().child(".info/serverTimeOffset");
+        final ValueEventListener valueListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                Long offset = snapshot.getValue(Long.class);
+                if (offset != null) listener.onServerTimeOffset(offset);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+            }
+        };
+        offsetRef.addValueEventListener(valueListener);
+        return new Subscription() {
+            @Override
+            public void cancel() {
+                offsetRef.removeEventListener(valueListener);
+            }
+        };
+    }
+
+    // The payload of every event is its DataSnapshot, getValue() turns its JSON tree into maps
+    @Override
+    public InstantMessage decode(Object raw) {
+        return InstantMessage.fromValue(((DataSnapshot) raw).getValue());
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    /*
+        One page that may span several buckets. It starts with the newest bucket and, as long as the page isn't full,
+        carries on with the next older day in the index, down to lowestBucket (or to the room's first day if that's null).
+        In the default room the old node from before rooms comes after its first day.
+        The count and oldest key handed to the PageCallback are those of the whole page.
+     */
+    private class BucketWalk implements Subscription {
+        private final BucketQuery mQuery;
+        private final String mLowestBucket;
+        private final int mLimit;
+        private final Listener mListener;
+        private final PageCallback mLoaded;
+        private final List<Subscription> mSubscriptions = new ArrayList<>();
+        private boolean mCancelled;
+        private int mCount;
+        private String mOldestKey;
+
+        BucketWalk(BucketQuery query, String lowestBucket, int limit, Listener listener, PageCallback loaded) {
+            mQuery = query;
+            mLowestBucket = lowestBucket;
+            mLimit = limit;
+            mListener = listener;
+            mLoaded = loaded;
+        }
+
+        // Bucket null is the old node
+        void load(final String bucket) {
+            final int remaining = mLimit - mCount;
+            Query page = mQuery.inBucket(bucket != null ? mMessages.child(bucket) : mLegacy, bucket, remaining);
+            mSubscriptions.add(attach(page, mListener));
+
+            page.addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot snapshot) {
+                    if (mCancelled) return;
+                    int count = (int) snapshot.getChildrenCount();
+                    if (count > 0) {
+                        // Every bucket is older than the one before, so its first message is the oldest of the page so far
+                        mOldestKey = firstKey(snapshot);
+                        mCount += count;
+                    }
+                    if (count < remaining && bucket != null) {
+                        loadPreviousBucket(bucket);
+                    } else {
+                        mLoaded.onPageLoaded(mOldestKey, mCount);
+                    }
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError error) {
+                    if (!mCancelled) mLoaded.onFailed(error.getMessage());
+                }
+            });
+        }
+
+        // Asks the index for the newest day with messages before this one
+        private void loadPreviousBucket(String bucket) {
+            mBuckets.orderByKey().endBefore(bucket).limitToLast(1).addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot snapshot) {
+                    if (mCancelled) return;
+                    String previous = firstKey(snapshot);
+                    if (previous == null && mLegacy != null) {
+                        // The first day of the default room, what came before is in the old node
+                        load(null);
+                    } else if (previous == null || (mLowestBucket != null && previous.compareTo(mLowestBucket) < 0)) {
+                        mLoaded.onPageLoaded(mOldestKey, mCount);
+                    } else {
+                        load(previous);
+                    }
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError error) {
+                    if (!mCancelled) mLoaded.onFailed(error.getMessage());
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+            for (Subscription subscription : mSubscriptions) {
+                subscription.cancel();
+            }
+            mSubscriptions.clear();
+        }
+    }
+
+    private static Subscription attach(final Query query, final Listener listener) {
+        final ChildEventListener childListener = query.addChildEventListener(new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot dataSnapshot, String previousChildName) {
+                listener.onEvent(new ChatEvent(ChatEvent.ADDED, dataSnapshot.getKey(), previousChildName, dataSnapshot));
+            }
+
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot dataSnapshot, String previousChildName) {
+                listener.onEvent(new ChatEvent(ChatEvent.CHANGED, dataSnapshot.getKey(), previousChildName, dataSnapshot));
+            }
+
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot dataSnapshot) {
+                listener.onEvent(new ChatEvent(ChatEvent.REMOVED, dataSnapshot.getKey(), null, dataSnapshot));
+            }
+
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot dataSnapshot, String previousChildName) {
+                listener.onEvent(new ChatEvent(ChatEvent.MOVED, dataSnapshot.getKey(), previousChildName, dataSnapshot));
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                listener.onCancelled(databaseError.getMessage());
+            }
+        });
+        return new Subscription() {
+            @Override
+            public void cancel() {
+                query.removeEventListener(childListener);
+            }
+        };
+    }
+
+    private static String firstKey(DataSnapshot snapshot) {
+        for (DataSnapshot child : snapshot.getChildren()) {
+            return child.getKey();
+        }
+        return null;
+    }
+}
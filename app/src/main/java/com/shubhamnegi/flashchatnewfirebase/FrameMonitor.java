@@ -0,0 +1,67 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.view.Choreographer;
+
+/*
+    Watches the main thread's frames while a load test runs.
+
+    Choreographer calls doFrame() once per vsync as long as it's asked to again every time. The time between two calls
+    is how long a frame really took: 16.7ms on a 60Hz screen when the main thread keeps up, a multiple of it when frames were dropped.
+    Every interval goes into the "frame" histogram of ChatMetrics.
+
+    Choreographer --> https://developer.android.com/reference/android/view/Choreographer
+ */
+class FrameMonitor implements Choreographer.FrameCallback {
+
+    private static final long FRAME_NANOS = 1000000000L / 60;
+
+    private boolean mRunning;
+    private long mLastFrameNanos;
+    private long mFrameCount;
+    private long mDroppedFrames;
+
+    // Has to be called on the main thread
+    void start() {
+        if (mRunning) return;
+        mRunning = true;
+        mLastFrameNanos = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    void stop() {
+        mRunning = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) return;
+        if (mLastFrameNanos != 0) {
+            long interval = frameTimeNanos - mLastFrameNanos;
+            ChatMetrics.get().frame.record(interval / 1000);
+            mFrameCount++;
+            // A frame that took 2.5 vsyncs means 2 frames were never drawn
+            mDroppedFrames += Math.max(0, (interval + FRAME_NANOS / 2) / FRAME_NANOS - 1);
+        }
+        mLastFrameNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    long getFrameCount() {
+        return mFrameCount;
+    }
+
+    long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    void reset() {
+        mFrameCount = 0;
+        mDroppedFrames = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameMonitor{frames=" + mFrameCount + ", dropped=" + mDroppedFrames + "}";
+    }
+}
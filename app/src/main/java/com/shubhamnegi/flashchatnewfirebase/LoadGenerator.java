@@ -0,0 +1,227 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Plays the other users of a chat on the LoopbackTransport, so the app can be load tested offline.
+
+    A Profile says how many messages arrive per second, for how long, and how much history the room already has.
+    The history is seeded before the first message, open the chat afterwards to page through it.
+
+    Messages are made on a background thread and handed to the main thread every TICK_MILLIS, one event per message like
+    Firebase would deliver them. While it runs:
+      - the FrameMonitor records every frame interval, so a saturated main thread shows up as dropped frames
+      - the "main-queue" histogram records how long each tick waited for the main thread
+      - the heap in use is logged every second, together with the ChatMetrics
+    Read the results on the MetricsActivity or with dumpsys, see ChatMetrics.
+ */
+class LoadGenerator {
+
+    private static final long TICK_MILLIS = 20;
+    private static final long REPORT_MILLIS = 1000;
+    // Seeded history is spread out as if one message had been sent per minute
+    private static final long HISTORY_SPACING_MILLIS = 60 * 1000;
+    private static final int AUTHORS = 20;
+    private static final String[] WORDS = {"hey", "did", "you", "see", "the", "game", "last", "night", "it", "was", "great",
+            "I", "think", "we", "should", "meet", "up", "later", "today", "ok", "sure", "lol", "what", "time", "works"};
+
+    static class Profile {
+        final String name;
+        final int messagesPerSecond;
+        // 0 runs until stop()
+        final long durationMillis;
+        final int historySize;
+
+        Profile(String name, int messagesPerSecond, long durationMillis, int historySize) {
+            this.name = name;
+            this.messagesPerSecond = messagesPerSecond;
+            this.durationMillis = durationMillis;
+            this.historySize = historySize;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + messagesPerSecond + " msg/s"
+                    + (durationMillis == 0 ? "" : " for " + durationMillis / 1000 + "s")
+                    + ", " + historySize + " old messages)";
+        }
+    }
+
+    static final Profile QUIET = new Profile("quiet", 1, 0, 100);
+    static final Profile CHATTY = new Profile("chatty", 10, 0, 1000);
+    static final Profile BUSY = new Profile("busy", 100, 60 * 1000, 10000);
+    static final Profile BURST = new Profile("burst", 500, 5 * 1000, 10000);
+
+    static final Profile[] PROFILES = {QUIET, CHATTY, BUSY, BURST};
+
+    private static LoadGenerator sInstance;
+
+    private final LoopbackTransport mTransport;
+    private final FrameMonitor mFrameMonitor = new FrameMonitor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Random mRandom = new Random();
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    // The run currently going on, ticks of an earlier run are ignored. Only touched on the main thread.
+    private Run mRun;
+    private long mMaxHeapBytes;
+
+    private LoadGenerator(LoopbackTransport transport) {
+        mTransport = transport;
+    }
+
+    // Has to be called on the main thread, the generator keeps running while the chat is in front
+    static LoadGenerator getInstance() {
+        if (sInstance == null) {
+            sInstance = new LoadGenerator(LoopbackTransport.getInstance());
+        }
+        return sInstance;
+    }
+
+    void start(Profile profile) {
+        stop();
+        if (mThread == null) {
+            mThread = new HandlerThread("LoadGenerator");
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+        }
+        ChatMetrics.get().reset();
+        // The authors' names are looked up like those of real users, through the ProfileCache
+        for (int i = 0; i < AUTHORS; i++) {
+            mTransport.publishDisplayName(authorUid(i), "loadgen" + i + "@flashchat");
+        }
+        mFrameMonitor.reset();
+        mFrameMonitor.start();
+        mMaxHeapBytes = 0;
+
+        final Run run = new Run(profile);
+        mRun = run;
+        Log.d("FlashChat", "Load test started: " + profile);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                run.seed();
+            }
+        });
+        mMainHandler.postDelayed(mReport, REPORT_MILLIS);
+    }
+
+    void stop() {
+        if (mRun == null) return;
+        mRun.stopped = true;
+        Log.d("FlashChat", "Load test " + mRun.profile.name + " stopped after " + mRun.sent + " messages: " + this);
+        mRun = null;
+        mFrameMonitor.stop();
+        mMainHandler.removeCallbacks(mReport);
+    }
+
+    boolean isRunning() {
+        return mRun != null;
+    }
+
+    private final Runnable mReport = new Runnable() {
+        @Override
+        public void run() {
+            if (mRun == null) return;
+            Runtime runtime = Runtime.getRuntime();
+            long used = runtime.totalMemory() - runtime.freeMemory();
+            mMaxHeapBytes = Math.max(mMaxHeapBytes, used);
+            Log.d("FlashChat", "Load test " + mRun.profile.name + ": " + LoadGenerator.this + " heap=" + used / 1024 + "KB\n" + ChatMetrics.get().dump());
+            mMainHandler.postDelayed(this, REPORT_MILLIS);
+        }
+    };
+
+    private InstantMessage nextMessage(long sentAt) {
+        int words = 1 + (int) Math.min(20, Math.abs(mRandom.nextGaussian()) * 6);
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) body.append(' ');
+            body.append(WORDS[mRandom.nextInt(WORDS.length)]);
+        }
+        return InstantMessage.fromUser(authorUid(mRandom.nextInt(AUTHORS)), body.toString(), sentAt);
+    }
+
+    private static String authorUid(int author) {
+        return "loadgen-" + author;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadGenerator{" + mFrameMonitor + ", loopbackSize=" + mTransport.size() + ", maxHeap=" + mMaxHeapBytes / 1024 + "KB}";
+    }
+
+    // One start() to stop(). Everything but the stopped flag and sent counter belongs to the generator thread.
+    private class Run implements Runnable {
+        final Profile profile;
+        volatile boolean stopped;
+        volatile long sent;
+        private long mStartedAt;
+        private long mGenerated;
+
+        Run(Profile profile) {
+            this.profile = profile;
+        }
+
+        void seed() {
+            final List<InstantMessage> history = new ArrayList<>(profile.historySize);
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < profile.historySize; i++) {
+                history.add(nextMessage(now - (profile.historySize - i) * HISTORY_SPACING_MILLIS));
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (stopped) return;
+                    mTransport.seedHistory(history, history.size() * HISTORY_SPACING_MILLIS);
+                }
+            });
+            mStartedAt = SystemClock.elapsedRealtime();
+            mHandler.post(this);
+        }
+
+        // One tick: makes the messages that are due by now and hands them to the main thread in one go
+        @Override
+        public void run() {
+            if (stopped) return;
+            long elapsed = SystemClock.elapsedRealtime() - mStartedAt;
+            if (profile.durationMillis != 0 && elapsed >= profile.durationMillis) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mRun == Run.this) stop();
+                    }
+                });
+                return;
+            }
+
+            long due = elapsed * profile.messagesPerSecond / 1000 + 1;
+            final List<InstantMessage> batch = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            for (; mGenerated < due; mGenerated++) {
+                batch.add(nextMessage(now));
+            }
+            if (!batch.isEmpty()) {
+                final long postedAt = SystemClock.elapsedRealtime();
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (stopped) return;
+                        ChatMetrics.get().mainQueue.recordMillis(SystemClock.elapsedRealtime() - postedAt);
+                        mTransport.inject(batch);
+                        sent += batch.size();
+                    }
+                });
+            }
+            mHandler.postDelayed(this, TICK_MILLIS);
+        }
+    }
+}
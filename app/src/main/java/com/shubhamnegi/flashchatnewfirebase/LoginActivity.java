@@ -20,6 +20,7 @@ import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.AuthResult;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
 
 import cn.pedant.SweetAlert.SweetAlertDialog;
 
@@ -34,8 +35,26 @@ public class LoginActivity extends AppCompatActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace trace = StartupTrace.get();
+        trace.begin("LoginActivity.onCreate");
         super.onCreate(savedInstanceState);
+
+        // TODO: Grab an instance of FirebaseAuth
+        // Firebase keeps the session on the device. If someone is still signed in, skip the form and go straight to the chat.
+        trace.begin("session check");
+        mAuth = FirebaseAuth.getInstance();
+        FirebaseUser user = mAuth.getCurrentUser();
+        trace.end();
+        if (user != null) {
+            Log.d("FlashChat", "Session restored for " + user.getDisplayName());
+            openChat(user);
+            trace.end();
+            return;
+        }
+
+        trace.begin("setContentView");
         setContentView(R.layout.activity_login);
+        trace.end();
 
         mEmailView = findViewById(R.id.login_email);
         mPasswordView = findViewById(R.id.login_password);
@@ -53,9 +72,32 @@ public class LoginActivity extends AppCompatActivity {
             }
         });
 
-        // TODO: Grab an instance of FirebaseAuth
-        mAuth = FirebaseAuth.getInstance();
+        DeferredInit.afterFirstFrame(this, new Runnable() {
+            @Override
+            public void run() {
+                DeferredInit.enableAnalytics(LoginActivity.this);
+            }
+        });
+
+        trace.end();
+    }
 
+    /*
+        Starts the chat's repository before MainChatActivity even exists: the request for the newest messages goes out now,
+        while the chat is being created, and MainChatActivity picks up the same repository with whatever arrived.
+     */
+    private void openChat(FirebaseUser user) {
+        StartupTrace.get().begin("prewarm history");
+        ChatRepository repository = ChatRepository.getInstance(this, user.getUid(), user.getDisplayName());
+        repository.start();
+        // Other users see our name through their ProfileCache
+        if (user.getDisplayName() != null) repository.getTransport().publishDisplayName(user.getUid(), user.getDisplayName());
+        StartupTrace.get().end();
+
+        // Going to MainChat Activity
+        Intent intent = new Intent(this, MainChatActivity.class);
+        finish();
+        startActivity(intent);
     }
 
     // Executed when Sign in button pressed
@@ -87,9 +129,13 @@ public class LoginActivity extends AppCompatActivity {
         // TODO: Use FirebaseAuth to sign in with email & password
         // signInWithEmailAndPassword() method will return an object of type "Task". We will use this "Task" to listen for the event.
         // If signing the user on firebase server is successful, an event is triggered and we will use the "Task" to listen for the event using addOnCompleteListener
+        // The database connection is opened while the sign in request is on its way, the chat needs it right after
+        StartupTrace.get().mark("sign-in");
+        FirebaseTransport.prewarm();
         mAuth.signInWithEmailAndPassword(email, password).addOnCompleteListener(this, new OnCompleteListener<AuthResult>() {
             @Override
             public void onComplete(@NonNull Task<AuthResult> task) {
+                StartupTrace.get().mark(task.isSuccessful() ? "signed-in" : "sign-in-failed");
 
                 Log.d("FlashChat", "signInWithEmail() onComplete: " + task.isSuccessful());
 
@@ -97,10 +143,8 @@ public class LoginActivity extends AppCompatActivity {
                     Log.d("FlashChat", "Problem signing in: " + task.getException());
                     showErrorDialog("There was a problem signing in");
                 } else {
-                    // Going to MainChat Activity
-                    Intent intent = new Intent(LoginActivity.this, MainChatActivity.class);
-                    finish();
-                    startActivity(intent);
+                    // The messages can only be read once we are signed in, so the history is requested now and not any earlier
+                    openChat(task.getResult().getUser());
                 }
 
             }
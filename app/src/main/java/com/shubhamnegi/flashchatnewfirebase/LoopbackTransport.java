@@ -0,0 +1,431 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+    A ChatTransport that keeps the messages in memory instead of sending them anywhere, for load tests without a
+    Firebase project or a network. The LoadGenerator plays the other users.
+
+    It behaves like Firebase where the chat can tell the difference:
+      - events carry the message as a Map of its JSON fields, what snapshot.getValue() returns, so decoding costs the same
+      - writes and their events arrive after a simulated network latency, on the main thread
+      - SERVER_TIMESTAMP is replaced with the "server's" time when a message is stored
+      - a page is a fixed window of keys and keeps reporting changes to those keys
+    Messages are never deleted, nothing in the chat can delete one yet.
+    There are no rooms or buckets: every room the chat opens shows the same messages, which are all in memory anyway.
+    The same goes for the read marks, and the message count is simply how many messages there are.
+    Display names are kept here too, the LoadGenerator publishes one for each of its authors.
+
+    Everything is only touched on the main thread. Turned on from the MetricsActivity in debug builds, see isEnabled().
+ */
+class LoopbackTransport implements ChatTransport {
+
+    static final long DEFAULT_LATENCY_MILLIS = 50;
+
+    private static final String PREFS_NAME = "flashchat_debug";
+    private static final String PREF_ENABLED = "loopback_transport";
+
+    private static LoopbackTransport sInstance;
+
+    // Every message ever written, by push key. TreeMap keeps them in chat order.
+    private final TreeMap<String, InstantMessage> mMessages = new TreeMap<>();
+    private final List<Query> mQueries = new ArrayList<>();
+    // Read marks by uid, and who is told about them and about the message count
+    private final Map<String, String> mReadMarks = new HashMap<>();
+    private final List<ReadMarkListener> mReadMarkListeners = new ArrayList<>();
+    private final List<CountListener> mCountListeners = new ArrayList<>();
+    // Display names by uid, and who is listening to each
+    private final Map<String, String> mNames = new HashMap<>();
+    private final Map<String, List<NameListener>> mNameListeners = new HashMap<>();
+    private final PushKeyGenerator mKeys = new PushKeyGenerator();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private long mLatencyMillis = DEFAULT_LATENCY_MILLIS;
+
+    private LoopbackTransport() {
+    }
+
+    // One backend per process, so the messages survive the chat being closed and opened again
+    static LoopbackTransport getInstance() {
+        if (sInstance == null) {
+            sInstance = new LoopbackTransport();
+        }
+        return sInstance;
+    }
+
+    // Whether the chat should use the loopback backend instead of Firebase, takes effect the next time the chat opens
+    static boolean isEnabled(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getBoolean(PREF_ENABLED, false);
+    }
+
+    static void setEnabled(Context context, boolean enabled) {
+        SharedPreferences.Editor editor = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
+        editor.putBoolean(PREF_ENABLED, enabled);
+        editor.apply();
+    }
+
+    void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    int size() {
+        return mMessages.size();
+    }
+
+    @Override
+    public void readNewestKey(final KeyCallback callback) {
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                callback.onKey(mMessages.isEmpty() ? null : mMessages.lastKey());
+            }
+        }, mLatencyMillis);
+    }
+
+    @Override
+    public void readMessage(final String key, final MessageCallback callback) {
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                callback.onMessage(mMessages.get(key));
+            }
+        }, mLatencyMillis);
+    }
+
+    @Override
+    public Subscription subscribePage(final String endKey, final boolean inclusive, final int limit, Listener listener, final PageCallback loaded) {
+        final PageQuery query = new PageQuery(listener);
+        mQueries.add(query);
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (query.cancelled) return;
+                // The window is the newest limit keys up to endKey, taken when the page arrives
+                NavigableMap<String, InstantMessage> older = mMessages.headMap(endKey, inclusive);
+                List<String> keys = new ArrayList<>(limit);
+                for (String key : older.descendingKeySet()) {
+                    if (keys.size() == limit) break;
+                    keys.add(key);
+                }
+                deliverPage(query, keys, loaded);
+            }
+        }, mLatencyMillis);
+        return query;
+    }
+
+    // There's no index here, every message is looked at. Fine for a few hundred thousand in memory.
+    @Override
+    public Subscription subscribeTimeRange(final long startAt, final long endAt, final int limit, Listener listener, final PageCallback loaded) {
+        final PageQuery query = new PageQuery(listener);
+        mQueries.add(query);
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (query.cancelled) return;
+                // Newest first, keys follow the stored time closely enough for a test backend
+                List<String> keys = new ArrayList<>(limit);
+                for (Map.Entry<String, InstantMessage> entry : mMessages.descendingMap().entrySet()) {
+                    if (keys.size() == limit) break;
+                    Long time = entry.getValue().serverTime();
+                    if (time != null && time >= startAt && time <= endAt) keys.add(entry.getKey());
+                }
+                deliverPage(query, keys, loaded);
+            }
+        }, mLatencyMillis);
+        return query;
+    }
+
+    // Delivers the keys of a page, given newest first, as ADDED events oldest first
+    private void deliverPage(PageQuery query, List<String> keys, PageCallback loaded) {
+        String previousKey = null;
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            String key = keys.get(i);
+            query.keys.add(key);
+            query.listener.onEvent(new ChatEvent(ChatEvent.ADDED, key, previousKey, toValue(mMessages.get(key))));
+            previousKey = key;
+        }
+        loaded.onPageLoaded(keys.isEmpty() ? null : keys.get(keys.size() - 1), keys.size());
+    }
+
+    @Override
+    public Subscription subscribeAfter(final String afterKey, Listener listener) {
+        final AfterQuery query = new AfterQuery(afterKey, listener);
+        mQueries.add(query);
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (query.cancelled) return;
+                NavigableMap<String, InstantMessage> newer = afterKey == null ? mMessages : mMessages.tailMap(afterKey, false);
+                String previousKey = null;
+                for (Map.Entry<String, InstantMessage> entry : newer.entrySet()) {
+                    query.listener.onEvent(new ChatEvent(ChatEvent.ADDED, entry.getKey(), previousKey, toValue(entry.getValue())));
+                    previousKey = entry.getKey();
+                }
+                query.live = true;
+            }
+        }, mLatencyMillis);
+        return query;
+    }
+
+    @Override
+    public String newKey() {
+        return mKeys.next();
+    }
+
+    // The count is the size of the map, a message written twice is only in there once
+    @Override
+    public void write(final Map<String, InstantMessage> messages, boolean mayBeStored, final WriteCallback callback) {
+        // Copied now, the caller is free to reuse the map
+        final Map<String, InstantMessage> copy = new HashMap<>(messages);
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+                for (Map.Entry<String, InstantMessage> entry : copy.entrySet()) {
+                    store(entry.getKey(), entry.getValue(), now);
+                }
+                callback.onWritten();
+            }
+        }, mLatencyMillis);
+    }
+
+    // Messages of other users, stored and delivered right away: the generator already decided when they arrive
+    void inject(List<InstantMessage> messages) {
+        long now = System.currentTimeMillis();
+        for (InstantMessage message : messages) {
+            store(mKeys.next(now), message, now);
+        }
+    }
+
+    /*
+        Adds the messages spread over the spanMillis before now, oldest first, as if they had been sent long ago.
+        Meant to be called before the chat opens, so the messages are found by paging back.
+     */
+    void seedHistory(List<InstantMessage> messages, long spanMillis) {
+        long now = System.currentTimeMillis();
+        long start = now - spanMillis;
+        int count = messages.size();
+        for (int i = 0; i < count; i++) {
+            long time = start + spanMillis * i / Math.max(1, count);
+            store(mKeys.next(time), messages.get(i), time);
+        }
+    }
+
+    // Forgets every message and read mark. Open subscriptions keep running but are told nothing about it.
+    void clear() {
+        mMessages.clear();
+        mReadMarks.clear();
+    }
+
+    @Override
+    public Subscription subscribeReadMarks(final ReadMarkListener listener) {
+        final Runnable deliver = new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<String, String> mark : new HashMap<>(mReadMarks).entrySet()) {
+                    listener.onReadMark(mark.getKey(), mark.getValue());
+                }
+                mReadMarkListeners.add(listener);
+            }
+        };
+        mMainHandler.postDelayed(deliver, mLatencyMillis);
+        return new Subscription() {
+            @Override
+            public void cancel() {
+                mMainHandler.removeCallbacks(deliver);
+                mReadMarkListeners.remove(listener);
+            }
+        };
+    }
+
+    @Override
+    public void writeReadMark(final String uid, final String key) {
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (key.equals(mReadMarks.put(uid, key))) return;
+                for (int i = 0; i < mReadMarkListeners.size(); i++) {
+                    mReadMarkListeners.get(i).onReadMark(uid, key);
+                }
+            }
+        }, mLatencyMillis);
+    }
+
+    @Override
+    public Subscription subscribeMessageCount(final CountListener listener) {
+        final Runnable deliver = new Runnable() {
+            @Override
+            public void run() {
+                listener.onCount(mMessages.size());
+                mCountListeners.add(listener);
+            }
+        };
+        mMainHandler.postDelayed(deliver, mLatencyMillis);
+        return new Subscription() {
+            @Override
+            public void cancel() {
+                mMainHandler.removeCallbacks(deliver);
+                mCountListeners.remove(listener);
+            }
+        };
+    }
+
+    @Override
+    public Subscription subscribeDisplayName(final String uid, final NameListener listener) {
+        final Runnable deliver = new Runnable() {
+            @Override
+            public void run() {
+                listener.onDisplayName(mNames.get(uid));
+                List<NameListener> listeners = mNameListeners.get(uid);
+                if (listeners == null) {
+                    listeners = new ArrayList<>();
+                    mNameListeners.put(uid, listeners);
+                }
+                listeners.add(listener);
+            }
+        };
+        mMainHandler.postDelayed(deliver, mLatencyMillis);
+        return new Subscription() {
+            @Override
+            public void cancel() {
+                mMainHandler.removeCallbacks(deliver);
+                List<NameListener> listeners = mNameListeners.get(uid);
+                if (listeners == null) return;
+                listeners.remove(listener);
+                if (listeners.isEmpty()) mNameListeners.remove(uid);
+            }
+        };
+    }
+
+    @Override
+    public void publishDisplayName(final String uid, final String name) {
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (name.equals(mNames.put(uid, name))) return;
+                List<NameListener> listeners = mNameListeners.get(uid);
+                if (listeners == null) return;
+                for (int i = 0; i < listeners.size(); i++) {
+                    listeners.get(i).onDisplayName(name);
+                }
+            }
+        }, mLatencyMillis);
+    }
+
+    // There's no clock to be off from, the server is this process
+    @Override
+    public Subscription subscribeServerTimeOffset(final OffsetListener listener) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onServerTimeOffset(0);
+            }
+        });
+        return new Subscription() {
+            @Override
+            public void cancel() {
+            }
+        };
+    }
+
+    @Override
+    public InstantMessage decode(Object raw) {
+        return InstantMessage.fromValue(raw);
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return false;
+    }
+
+    private void store(String key, InstantMessage message, long serverTime) {
+        Map<String, Object> value = toValue(message);
+        if (message.getTimestamp() != null) value.put("timestamp", serverTime);
+        InstantMessage stored = InstantMessage.fromValue(value);
+        InstantMessage previous = mMessages.put(key, stored);
+
+        int type = previous == null ? ChatEvent.ADDED : ChatEvent.CHANGED;
+        if (previous != null && previous.equals(stored)) return;
+        String previousKey = mMessages.lowerKey(key);
+        for (int i = 0; i < mQueries.size(); i++) {
+            Query query = mQueries.get(i);
+            if (query.covers(key, type)) {
+                query.listener.onEvent(new ChatEvent(type, key, previousKey, toValue(stored)));
+            }
+        }
+        if (type != ChatEvent.ADDED) return;
+        for (int i = 0; i < mCountListeners.size(); i++) {
+            mCountListeners.get(i).onCount(mMessages.size());
+        }
+    }
+
+    // What snapshot.getValue() would return for the message: a fresh map of its JSON fields
+    private static Map<String, Object> toValue(InstantMessage message) {
+        Map<String, Object> value = new HashMap<>();
+        value.put("message", message.getMessage());
+        if (message.getAuthor() != null) value.put("author", message.getAuthor());
+        if (message.getUid() != null) value.put("uid", message.getUid());
+        if (message.getSentAt() != null) value.put("sentAt", message.getSentAt());
+        if (message.getTimestamp() != null) value.put("timestamp", message.getTimestamp());
+        return value;
+    }
+
+    private abstract class Query implements Subscription {
+        final Listener listener;
+        boolean cancelled;
+
+        Query(Listener listener) {
+            this.listener = listener;
+        }
+
+        // Whether an event of this type for this key belongs to the query
+        abstract boolean covers(String key, int type);
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            mQueries.remove(this);
+        }
+    }
+
+    private class PageQuery extends Query {
+        // The keys of the window, filled in when the page arrives
+        final Set<String> keys = new HashSet<>();
+
+        PageQuery(Listener listener) {
+            super(listener);
+        }
+
+        @Override
+        boolean covers(String key, int type) {
+            return type == ChatEvent.CHANGED && keys.contains(key);
+        }
+    }
+
+    private class AfterQuery extends Query {
+        final String afterKey;
+        // Becomes true once the existing messages were delivered, new ones are only sent after that
+        boolean live;
+
+        AfterQuery(String afterKey, Listener listener) {
+            super(listener);
+            this.afterKey = afterKey;
+        }
+
+        @Override
+        boolean covers(String key, int type) {
+            return live && (afterKey == null || key.compareTo(afterKey) > 0);
+        }
+    }
+}
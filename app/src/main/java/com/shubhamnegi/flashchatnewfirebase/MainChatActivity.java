@@ -1,55 +1,111 @@
 package com.shubhamnegi.flashchatnewfirebase;
 
+import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.EditText;
 import android.widget.ImageButton;
-import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.auth.UserInfo;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
 
 public class MainChatActivity extends AppCompatActivity {
 
+    private static final int REQUEST_SEARCH = 1;
+
     // TODO: Add member variables here:
+    private String mUid;
     private String mDisplayName;
-    private ListView mChatListView;
+    private RecyclerView mChatListView;
+    private LinearLayoutManager mLayoutManager;
     private EditText mInputText;
     private ImageButton mSendButton;
-    private DatabaseReference mDatabaseReference;   // Used to talk to Firebase's Database
-    // More about DatabaseReference --> https://firebase.google.com/docs/reference/android/com/google/firebase/database/DatabaseReference
+    private ImageButton mSearchButton;
+    private TextView mRoomName;
     private ChatListAdapter mAdapter;
+    private ChatRepository mRepository;
+    // When onCreate() started, the "first-message" histogram measures from here
+    private long mCreatedAt;
 
+    /*
+        Startup runs in phases, each one a StartupTrace section (see the report in logcat or dumpsys).
+        Only what the first screen needs happens before the first frame. Logging the provider data, analytics and
+        the history beyond the first screen wait until after it, see mDeferredStartup and mAfterFirstMessage.
+     */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mCreatedAt = SystemClock.elapsedRealtime();
+        StartupTrace trace = StartupTrace.get();
+        trace.begin("MainChatActivity.onCreate");
         super.onCreate(savedInstanceState);
+
+        trace.begin("setContentView");
         setContentView(R.layout.activity_main_chat);
+        trace.end();
 
         // TODO: Set up the display name and get the Firebase reference
+        trace.begin("firebase");
         setupDisplayName();
-        mDatabaseReference = FirebaseDatabase.getInstance().getReference();
-
-        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
-        UserInfo profile = user.getProviderData().get(0); // getting the first one bc this is a list
-        String uid = profile.getUid();
-        Log.d("FlashChat", "User id is: " + uid);
-
-
+        trace.end();
 
         // Link the Views in the layout to the Java code
         mInputText = (EditText) findViewById(R.id.messageInput);
         mSendButton = (ImageButton) findViewById(R.id.sendButton);
-        mChatListView = (ListView) findViewById(R.id.chat_list_view);
+        mChatListView = (RecyclerView) findViewById(R.id.chat_list_view);
+        mRoomName = (TextView) findViewById(R.id.roomName);
+        mSearchButton = (ImageButton) findViewById(R.id.searchButton);
+
+        // Newest messages sit at the bottom of the screen, like the old ListView did
+        mLayoutManager = new LinearLayoutManager(this);
+        mLayoutManager.setStackFromEnd(true);
+        mChatListView.setLayoutManager(mLayoutManager);
+
+        // The repository outlives this activity, so coming back to the chat shows the messages we already have straight away.
+        // Coming from the LoginActivity it's already loading the newest messages.
+        trace.begin("repository");
+        mRepository = ChatRepository.getInstance(this, mUid, mDisplayName);
+        trace.end();
+
+        mRoomName.setText(getString(R.string.room_title, mRepository.getRoom()));
+        mRoomName.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                startActivity(new Intent(MainChatActivity.this, RoomListActivity.class));
+            }
+        });
+        mSearchButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                startActivityForResult(new Intent(MainChatActivity.this, SearchActivity.class), REQUEST_SEARCH);
+            }
+        });
+
+        trace.begin("adapter");
+        mAdapter = new ChatListAdapter(this, mRepository);
+        mAdapter.registerAdapterDataObserver(mScrollToNewMessages);
+        mChatListView.setAdapter(mAdapter);
+        mAdapter.attachTo(mChatListView);
+        mChatListView.addOnScrollListener(mReadTracker);
+        trace.end();
+        mChatListView.getViewTreeObserver().addOnPreDrawListener(mFirstDrawWatcher);
 
         // TODO: Send the message when the "enter" button is pressed
         mInputText.setOnEditorActionListener(new TextView.OnEditorActionListener() {
@@ -69,8 +125,73 @@ public class MainChatActivity extends AppCompatActivity {
             }
         });
 
+        // Debug builds only: long pressing the send button shows the latency histograms
+        if (BuildConfig.DEBUG) {
+            mSendButton.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    startActivity(new Intent(MainChatActivity.this, MetricsActivity.class));
+                    return true;
+                }
+            });
+        }
+
+        trace.end();
     }
 
+    /*
+        Watches the frames until the first message is on screen. The first frame starts the deferred work,
+        the first frame with a message in it marks the end of startup.
+     */
+    private ViewTreeObserver.OnPreDrawListener mFirstDrawWatcher = new ViewTreeObserver.OnPreDrawListener() {
+        private boolean mFrameDrawn;
+
+        @Override
+        public boolean onPreDraw() {
+            if (!mFrameDrawn) {
+                mFrameDrawn = true;
+                StartupTrace.get().mark(StartupTrace.FIRST_FRAME);
+                // Posted from the pre-draw listener, so it runs after this frame was drawn
+                mChatListView.post(mDeferredStartup);
+            }
+            if (mAdapter.getItemCount() > 0) {
+                mChatListView.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupTrace.get().mark(StartupTrace.FIRST_MESSAGE);
+                // Tells the platform too, it logs "Fully drawn" with the time since launch
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) reportFullyDrawn();
+                ChatMetrics.get().firstMessage.recordMillis(SystemClock.elapsedRealtime() - mCreatedAt);
+                mChatListView.post(mAfterFirstMessage);
+            }
+            return true;
+        }
+    };
+
+    // Work the first frame doesn't need
+    private Runnable mDeferredStartup = new Runnable() {
+        @Override
+        public void run() {
+            if (isFinishing()) return;
+            StartupTrace.get().begin("deferred");
+            FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+            if (user != null && !user.getProviderData().isEmpty()) {
+                UserInfo profile = user.getProviderData().get(0); // getting the first one bc this is a list
+                String uid = profile.getUid();
+                Log.d("FlashChat", "User id is: " + uid);
+            }
+            DeferredInit.enableAnalytics(MainChatActivity.this);
+            StartupTrace.get().end();
+        }
+    };
+
+    // Only a screenful of messages is loaded before the first one is shown, the next page comes now
+    private Runnable mAfterFirstMessage = new Runnable() {
+        @Override
+        public void run() {
+            if (isFinishing()) return;
+            mRepository.getPager().loadOlder();
+        }
+    };
+
     // TODO: Retrieve the display name from the Shared Preferences
     private void setupDisplayName(){
 
@@ -85,6 +206,8 @@ public class MainChatActivity extends AppCompatActivity {
          *  Retrieving username using firebase
          */
         FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        // Messages are sent with the uid, the name is only needed to find our own messages from before that
+        mUid = user.getUid();
         mDisplayName = user.getDisplayName();
         Log.d("FlashChat", "setupDisplayName: "+mDisplayName);
     }
@@ -96,13 +219,13 @@ public class MainChatActivity extends AppCompatActivity {
         // TODO: Grab the text the user typed in and push the message to Firebase
         String input = mInputText.getText().toString();
         if (!input.equals("")) {
-            // Passing input and mDisplayName to model class
-            InstantMessage chat = new InstantMessage(input, mDisplayName);
-            mDatabaseReference.child("messages").push().setValue(chat);
+            // The repository queues the message with our uid and sends it to the open room in order,
+            // retrying until Firebase has stored it. Everyone looks our name up by the uid, see ProfileCache
+            mRepository.send(input);
             /* DatabaseReference is a particular position in our firebase's database.
-               Using child() method, we specify that all the chats are stored in a location called "messages".
-               Then we use push() method to get a reference of this child location and then call setValue()
-               to write the data in our database at the location "messages".
+               More about DatabaseReference --> https://firebase.google.com/docs/reference/android/com/google/firebase/database/DatabaseReference
+               Under the hood the OutboundQueue asks the FirebaseTransport, which uses push() to generate the key of the new message and
+               updateChildren() to write a burst of messages into the room's bucket of the day in one go.
              */
 
             mInputText.setText("");
@@ -114,18 +237,109 @@ public class MainChatActivity extends AppCompatActivity {
     @Override
     public void onStart() {
         super.onStart();
-        mAdapter = new ChatListAdapter(this, mDatabaseReference, mDisplayName);
-        mChatListView.setAdapter(mAdapter);
+        // Another room was picked in the RoomListActivity, or the loopback backend toggled in the MetricsActivity, or another
+        // Activity's getInstance() released our repository already. Recreated, getInstance() makes the repository to use now.
+        if (!mRepository.isCurrent(this)) {
+            recreate();
+            return;
+        }
+        // Listens to Firebase again, only for messages newer than the ones the repository already has
+        StartupTrace.get().begin("repository.start");
+        mRepository.start();
+        StartupTrace.get().end();
     }
 
+    /*
+        A search result was picked. If the message is loaded the list scrolls to it, otherwise everything from its time
+        on is loaded first (see ChatRepository.jumpTo()). Called after onStart(), so the repository is listening again.
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != REQUEST_SEARCH || resultCode != RESULT_OK || data == null) return;
+
+        int position = mRepository.getStore().indexOf(data.getStringExtra(SearchActivity.EXTRA_KEY));
+        if (position >= 0) {
+            mLayoutManager.scrollToPositionWithOffset(position, 0);
+            return;
+        }
+        mRepository.jumpTo(data.getLongExtra(SearchActivity.EXTRA_TIME, 0), new ChatRepository.JumpCallback() {
+            @Override
+            public void onJumped(int position) {
+                if (position < mAdapter.getItemCount()) mLayoutManager.scrollToPositionWithOffset(position, 0);
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                Toast.makeText(MainChatActivity.this, R.string.error_jump_failed, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /*
+        Replacement for the ListView's transcriptMode="normal": when messages are appended while the user
+        is looking at the newest one, follow them. If the user scrolled up to read older messages, leave the list alone.
+     */
+    private RecyclerView.AdapterDataObserver mScrollToNewMessages = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            int lastVisible = mLayoutManager.findLastCompletelyVisibleItemPosition();
+            boolean appended = positionStart + itemCount == mAdapter.getItemCount();
+            if (appended && (lastVisible == RecyclerView.NO_POSITION || lastVisible >= positionStart - 1)) {
+                mChatListView.scrollToPosition(mAdapter.getItemCount() - 1);
+            }
+        }
+    };
+
+
+    /*
+        Whatever was completely on screen has been read, see ReadReceipts. Also called after every layout that changed
+        the rows on screen, so messages arriving while the user looks at the newest one are read too.
+     */
+    private RecyclerView.OnScrollListener mReadTracker = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            mRepository.getReadReceipts().onRead(mLayoutManager.findLastCompletelyVisibleItemPosition());
+        }
+    };
+
 
     @Override
     public void onStop() {
         super.onStop();
 
         // TODO: Remove the Firebase event listener on the adapter.
-        mAdapter.cleanup();
+        // The listeners are removed but the messages are kept for when the chat comes back
+        mRepository.stop();
 
     }
 
+    /*
+        Dump API for tracking latencies from one release to the next:
+        adb shell dumpsys activity com.shubhamnegi.flashchatnewfirebase/.MainChatActivity
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        ChatMetrics.get().dump(prefix, writer);
+        StartupTrace.get().dump(prefix, writer);
+        writer.println(prefix + "  " + mRepository.getOutbox());
+        writer.println(prefix + "  " + mRepository.getDecoder());
+        writer.println(prefix + "  " + mRepository.getBatcher());
+        writer.println(prefix + "  " + mRepository.getWindow());
+        writer.println(prefix + "  " + mRepository.getReadReceipts());
+        writer.println(prefix + "  " + ProfileCache.getInstance(mRepository.getTransport()));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mChatListView.getViewTreeObserver().removeOnPreDrawListener(mFirstDrawWatcher);
+        mChatListView.removeCallbacks(mDeferredStartup);
+        mChatListView.removeCallbacks(mAfterFirstMessage);
+        mAdapter.cleanup();
+        mAdapter.unregisterAdapterDataObserver(mScrollToNewMessages);
+        mChatListView.removeOnScrollListener(mReadTracker);
+    }
+
 }
@@ -0,0 +1,233 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    Keeps a copy of the newest messages on disk, so that after the process was killed the chat can be drawn
+    straight away instead of waiting for Firebase to send the history again.
+
+    Every batch the ChatRepository applies to its MessageStore is written here as well, in one transaction on a background thread.
+    On a cold start the cached messages are loaded into the store and Firebase is only asked for messages after the
+    newest cached push key (the high-water mark).
+
+    Only the newest maxMessages messages are kept, older ones are evicted after every write.
+    Every room has a cache file of its own, so switching rooms and back still starts from the cache.
+
+    Saving data using SQLite --> https://developer.android.com/training/data-storage/sqlite
+ */
+class MessageCache extends SQLiteOpenHelper {
+
+    static final int DEFAULT_MAX_MESSAGES = 2000;
+
+    // The cache of the single chat there was before rooms, its messages are no longer read from anywhere
+    private static final String LEGACY_DATABASE_NAME = "message_cache.db";
+    // Version 2 added the server timestamp, version 3 the author's uid
+    private static final int DATABASE_VERSION = 3;
+
+    private static final String TABLE = "messages";
+    private static final String COLUMN_KEY = "push_key";
+    private static final String COLUMN_AUTHOR = "author";
+    private static final String COLUMN_BODY = "body";
+    private static final String COLUMN_TIMESTAMP = "timestamp";
+    private static final String COLUMN_UID = "uid";
+
+    // Receives the cached messages on the main thread, oldest first, as ready to apply ADDED events
+    interface LoadCallback {
+        void onLoaded(List<ChatEvent> events);
+    }
+
+    // Receives the messages loadMessages() found on the main thread, by push key. Keys that aren't cached are left out.
+    interface MessagesCallback {
+        void onLoaded(Map<String, InstantMessage> messages);
+    }
+
+    private final Context mContext;
+    private final int mMaxMessages;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // With onDisk false the cache is an in-memory database that's gone with the process
+    // Room names only contain characters that are safe in a file name, see ChatRooms
+    MessageCache(Context context, String room, boolean onDisk, int maxMessages) {
+        super(context.getApplicationContext(), onDisk ? "message_cache_" + room + ".db" : null, null, DATABASE_VERSION);
+        mContext = context.getApplicationContext();
+        mMaxMessages = maxMessages;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        // The push key is the primary key, so reading the messages in chat order uses its index
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COLUMN_KEY + " TEXT PRIMARY KEY, "
+                + COLUMN_AUTHOR + " TEXT, "
+                + COLUMN_BODY + " TEXT, "
+                + COLUMN_TIMESTAMP + " INTEGER, "
+                + COLUMN_UID + " TEXT)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // It's only a cache, Firebase has everything
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    // Reads every cached message in the background
+    void load(final LoadCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                mContext.deleteDatabase(LEGACY_DATABASE_NAME);
+                final List<ChatEvent> events = new ArrayList<>();
+                Cursor cursor = null;
+                try {
+                    cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_KEY + ", " + COLUMN_AUTHOR + ", " + COLUMN_BODY + ", " + COLUMN_TIMESTAMP + ", " + COLUMN_UID
+                            + " FROM " + TABLE + " ORDER BY " + COLUMN_KEY, null);
+                    String previousKey = null;
+                    while (cursor.moveToNext()) {
+                        String key = cursor.getString(0);
+                        Long timestamp = cursor.isNull(3) ? null : cursor.getLong(3);
+                        InstantMessage message = new InstantMessage(cursor.getString(2), cursor.getString(1), cursor.getString(4), null, timestamp);
+                        events.add(ChatEvent.fromCache(key, previousKey, message));
+                        previousKey = key;
+                    }
+                } catch (SQLiteException e) {
+                    Log.w("FlashChat", "Could not read the message cache", e);
+                } finally {
+                    if (cursor != null) cursor.close();
+                }
+                Log.d("FlashChat", "Loaded " + events.size() + " cached messages in " + (System.currentTimeMillis() - start) + "ms");
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onLoaded(events);
+                    }
+                });
+            }
+        });
+    }
+
+    // Reads a few messages by push key in the background, e.g. the search hits that are shown
+    void loadMessages(List<String> keys, final MessagesCallback callback) {
+        final List<String> wanted = new ArrayList<>(keys);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Map<String, InstantMessage> messages = new HashMap<>();
+                StringBuilder placeholders = new StringBuilder();
+                for (int i = 0; i < wanted.size(); i++) {
+                    placeholders.append(i == 0 ? "?" : ", ?");
+                }
+                Cursor cursor = null;
+                try {
+                    cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_KEY + ", " + COLUMN_AUTHOR + ", " + COLUMN_BODY + ", " + COLUMN_TIMESTAMP + ", " + COLUMN_UID
+                            + " FROM " + TABLE + " WHERE " + COLUMN_KEY + " IN (" + placeholders + ")", wanted.toArray(new String[0]));
+                    while (cursor.moveToNext()) {
+                        Long timestamp = cursor.isNull(3) ? null : cursor.getLong(3);
+                        messages.put(cursor.getString(0), new InstantMessage(cursor.getString(2), cursor.getString(1), cursor.getString(4), null, timestamp));
+                    }
+                } catch (SQLiteException e) {
+                    Log.w("FlashChat", "Could not read " + wanted.size() + " cached messages", e);
+                } finally {
+                    if (cursor != null) cursor.close();
+                }
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onLoaded(messages);
+                    }
+                });
+            }
+        });
+    }
+
+    // Writes one batch of decoded events in the background, then evicts the oldest messages over the limit
+    void write(List<ChatEvent> batch) {
+        final List<ChatEvent> events = new ArrayList<>(batch);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeNow(events);
+                } catch (SQLiteException e) {
+                    Log.w("FlashChat", "Could not write to the message cache", e);
+                }
+            }
+        });
+    }
+
+    private void writeNow(List<ChatEvent> events) {
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement upsert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE
+                + " (" + COLUMN_KEY + ", " + COLUMN_AUTHOR + ", " + COLUMN_BODY + ", " + COLUMN_TIMESTAMP + ", " + COLUMN_UID + ") VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + TABLE + " WHERE " + COLUMN_KEY + " = ?");
+
+        db.beginTransaction();
+        try {
+            for (ChatEvent event : events) {
+                if (event.type == ChatEvent.ADDED || event.type == ChatEvent.CHANGED) {
+                    upsert.clearBindings();
+                    upsert.bindString(1, event.key);
+                    bindNullable(upsert, 2, event.message.getAuthor());
+                    bindNullable(upsert, 3, event.message.getMessage());
+                    Long timestamp = event.message.serverTime();
+                    if (timestamp == null) {
+                        upsert.bindNull(4);
+                    } else {
+                        upsert.bindLong(4, timestamp);
+                    }
+                    bindNullable(upsert, 5, event.message.getUid());
+                    upsert.executeInsert();
+                } else if (event.type == ChatEvent.REMOVED) {
+                    delete.bindString(1, event.key);
+                    delete.executeUpdateDelete();
+                }
+            }
+
+            // Evict the oldest messages over the limit. Keys sort in chat order, so the smallest ones are the oldest.
+            db.execSQL("DELETE FROM " + TABLE + " WHERE " + COLUMN_KEY + " IN (SELECT " + COLUMN_KEY + " FROM " + TABLE
+                    + " ORDER BY " + COLUMN_KEY + " DESC LIMIT -1 OFFSET " + mMaxMessages + ")");
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Finishes the writes and loads still queued, then closes the database. Nothing can be written or loaded afterwards.
+    void release() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
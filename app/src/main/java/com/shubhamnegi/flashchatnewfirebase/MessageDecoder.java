@@ -0,0 +1,103 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    Converts the payload of every event into an InstantMessage exactly once, on a background thread.
+
+    The ChatTransport does the decoding. For Firebase the snapshot's JSON tree is turned into a message by InstantMessage.fromValue(), a few map lookups instead of the
+    reflection snapshot.getValue(InstantMessage.class) does. Doing either inside onBindViewHolder meant paying for it on the main thread every time a row scrolled into view.
+    Now the adapter only ever sees already decoded messages.
+
+    A single thread keeps the events in the order Firebase delivered them.
+    ExecutorService --> https://developer.android.com/reference/java/util/concurrent/ExecutorService
+ */
+class MessageDecoder {
+
+    // Receives decoded events on the decoder thread
+    interface Sink {
+        void onDecoded(ChatEvent event);
+    }
+
+    private final ChatTransport mTransport;
+    private final Sink mSink;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private volatile boolean mShutdown;
+
+    // Decode timings, written on the decoder thread only
+    private volatile long mDecodedCount;
+    private volatile long mTotalDecodeNanos;
+    private volatile long mMaxDecodeNanos;
+    private volatile long mLastDecodeNanos;
+
+    MessageDecoder(ChatTransport transport, Sink sink) {
+        mTransport = transport;
+        mSink = sink;
+    }
+
+    void submit(final ChatEvent event) {
+        if (mShutdown) return;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mShutdown) return;
+                ChatEvent decoded = decode(event);
+                if (decoded != null && !mShutdown) mSink.onDecoded(decoded);
+            }
+        });
+    }
+
+    private ChatEvent decode(ChatEvent event) {
+        if (!event.needsDecoding()) return event.decoded(null);
+
+        long start = System.nanoTime();
+        InstantMessage message = mTransport.decode(event.raw);
+        long took = System.nanoTime() - start;
+
+        mDecodedCount++;
+        mTotalDecodeNanos += took;
+        mLastDecodeNanos = took;
+        if (took > mMaxDecodeNanos) mMaxDecodeNanos = took;
+        ChatMetrics.get().decode.record(took / 1000);
+
+        if (message == null) {
+            Log.w("FlashChat", "Skipping message " + event.key + " that doesn't look like an InstantMessage");
+            return null;
+        }
+        return event.decoded(message);
+    }
+
+    // Pending events are dropped, nothing is delivered after this returns
+    void shutdown() {
+        mShutdown = true;
+        mExecutor.shutdownNow();
+    }
+
+    long getDecodedCount() {
+        return mDecodedCount;
+    }
+
+    long getAverageDecodeMicros() {
+        long count = mDecodedCount;
+        return count == 0 ? 0 : mTotalDecodeNanos / count / 1000;
+    }
+
+    long getMaxDecodeMicros() {
+        return mMaxDecodeNanos / 1000;
+    }
+
+    long getLastDecodeMicros() {
+        return mLastDecodeNanos / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageDecoder{decoded=" + getDecodedCount()
+                + ", avg=" + getAverageDecodeMicros() + "us"
+                + ", max=" + getMaxDecodeMicros() + "us"
+                + ", last=" + getLastDecodeMicros() + "us}";
+    }
+}
@@ -0,0 +1,231 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Searches the messages of a room that this device has seen, also the ones long gone from the MessageCache.
+
+    The words of every message are kept in a SearchIndex, which is only used on a thread of its own: indexing and
+    searching never run on the main thread, and a search doesn't have to wait for a lock the indexing holds.
+    Every batch the ChatRepository applies is indexed as well, so the index grows with the pages that are loaded and
+    the messages that arrive. A search only sees messages that were loaded at some point, it doesn't ask Firebase.
+
+    On disk the index is a snapshot plus a journal:
+      - the journal gets every indexed event appended to it, so indexing a batch only writes the batch
+      - after COMPACT_AFTER_EVENTS events, and when the room is opened with a journal left over, the whole index
+        is written to a new snapshot and the journal starts over
+    Replaying an event the snapshot already has changes nothing, so being killed in between loses nothing.
+    A journal cut short by the process being killed is read up to its last complete event.
+    Only push keys and times are kept, a hit's message is loaded to show it, see ChatRepository.loadMessages.
+ */
+class MessageSearch {
+
+    static final int MAX_RESULTS = 50;
+
+    private static final int COMPACT_AFTER_EVENTS = 5000;
+
+    // Receives the hits of a query on the main thread, newest first. Not called for queries replaced by a newer one.
+    interface Callback {
+        void onResults(String query, List<SearchIndex.Hit> hits);
+    }
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Null for an index that only lives in memory, e.g. for the LoopbackTransport
+    private final File mSnapshotFile;
+    private final File mJournalFile;
+    // Bumped by every search() and by cancel(), a query only reports back if it's still the newest one
+    private final AtomicInteger mQueryGeneration = new AtomicInteger();
+
+    // Only touched on the executor's thread
+    private SearchIndex mIndex = new SearchIndex();
+    private DataOutputStream mJournal;
+    private int mJournalEvents;
+
+    // Room names only contain characters that are safe in a file name, see ChatRooms
+    MessageSearch(Context context, String room, boolean onDisk) {
+        File dir = context.getApplicationContext().getFilesDir();
+        mSnapshotFile = onDisk ? new File(dir, "search_" + room + ".idx") : null;
+        mJournalFile = onDisk ? new File(dir, "search_" + room + ".journal") : null;
+        if (!onDisk) return;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    // Indexes a batch of decoded events in the background
+    void index(List<ChatEvent> batch) {
+        final List<ChatEvent> events = new ArrayList<>(batch);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (ChatEvent event : events) {
+                    mIndex.apply(event);
+                }
+                appendToJournal(events);
+            }
+        });
+    }
+
+    // Looks the query up in the background. Searches still waiting for their turn are skipped once a newer one comes in.
+    void search(final String query, final Callback callback) {
+        final int generation = mQueryGeneration.incrementAndGet();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mQueryGeneration.get()) return;
+                long start = System.nanoTime();
+                final List<SearchIndex.Hit> hits = mIndex.search(query, MAX_RESULTS);
+                ChatMetrics.get().search.record((System.nanoTime() - start) / 1000);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mQueryGeneration.get()) callback.onResults(query, hits);
+                    }
+                });
+            }
+        });
+    }
+
+    // Drops the results of the searches that are still running
+    void cancel() {
+        mQueryGeneration.incrementAndGet();
+    }
+
+    // Indexes what's still queued, then closes the journal. Nothing can be indexed or searched afterwards.
+    void close() {
+        cancel();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeJournal();
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    private void load() {
+        long start = System.currentTimeMillis();
+        if (mSnapshotFile.exists()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(mSnapshotFile)));
+                mIndex = SearchIndex.readFrom(in);
+            } catch (IOException e) {
+                // Starts over, the messages are indexed again as they're loaded
+                Log.w("FlashChat", "Could not read the search index", e);
+                mIndex = new SearchIndex();
+            } finally {
+                closeQuietly(in);
+            }
+        }
+
+        int replayed = 0;
+        if (mJournalFile.exists()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(mJournalFile)));
+                SearchIndex.readJournalHeader(in);
+                while (true) {
+                    mIndex.apply(SearchIndex.readEvent(in));
+                    replayed++;
+                }
+            } catch (EOFException e) {
+                // The end of the journal, or the event that was being written when the process died
+            } catch (IOException e) {
+                Log.w("FlashChat", "Could not read the search journal after " + replayed + " events", e);
+            } finally {
+                closeQuietly(in);
+            }
+        }
+        Log.d("FlashChat", "Loaded the search index with " + mIndex.size() + " messages and " + replayed
+                + " journal events in " + (System.currentTimeMillis() - start) + "ms");
+
+        // A clean snapshot also drops a half written event at the end of the journal
+        if (replayed > 0 || mJournalFile.exists()) compact();
+    }
+
+    private void appendToJournal(List<ChatEvent> events) {
+        if (mJournalFile == null) return;
+        try {
+            if (mJournal == null) {
+                // Appends to a journal a failed compact() left behind, it already has its header
+                boolean empty = mJournalFile.length() == 0;
+                mJournal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mJournalFile, true)));
+                if (empty) SearchIndex.writeJournalHeader(mJournal);
+            }
+            for (ChatEvent event : events) {
+                if (event.type == ChatEvent.MOVED) continue;
+                SearchIndex.writeEvent(mJournal, event);
+                mJournalEvents++;
+            }
+            mJournal.flush();
+        } catch (IOException e) {
+            Log.w("FlashChat", "Could not write to the search journal", e);
+        }
+        if (mJournalEvents >= COMPACT_AFTER_EVENTS) compact();
+    }
+
+    // Writes the whole index to a new snapshot and empties the journal
+    private void compact() {
+        long start = System.currentTimeMillis();
+        File newSnapshot = new File(mSnapshotFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newSnapshot)));
+            mIndex.writeTo(out);
+            out.close();
+            out = null;
+            if (!newSnapshot.renameTo(mSnapshotFile)) throw new IOException("Could not rename " + newSnapshot);
+        } catch (IOException e) {
+            // The journal is kept, the next start tries again
+            Log.w("FlashChat", "Could not write the search index", e);
+            closeQuietly(out);
+            return;
+        }
+
+        closeJournal();
+        mJournalFile.delete();
+        mJournalEvents = 0;
+        Log.d("FlashChat", "Wrote the search index with " + mIndex.size() + " messages and " + mIndex.termCount()
+                + " words in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private void closeJournal() {
+        closeQuietly(mJournal);
+        mJournal = null;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+}
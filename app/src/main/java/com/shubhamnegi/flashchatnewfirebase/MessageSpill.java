@@ -0,0 +1,189 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    Keeps the message bodies the MessageWindow evicted from the MessageStore, until they're loaded back.
+
+    Unlike the MessageCache it holds any message of the open room, not just the newest ones, and only for as long as
+    the ChatRepository lives: the database is deleted when it's opened and when it's closed.
+    Writes and loads run one after the other on a single background thread, so a body is always written before
+    it can be loaded back.
+ */
+class MessageSpill extends SQLiteOpenHelper {
+
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE = "bodies";
+    private static final String COLUMN_KEY = "push_key";
+    private static final String COLUMN_BODY = "body";
+
+    // SQLite allows 999 parameters in a statement
+    private static final int MAX_KEYS_PER_QUERY = 500;
+
+    // Receives the loaded bodies on the main thread, by push key. A body that was null is there with a null value.
+    interface LoadCallback {
+        void onLoaded(Map<String, byte[]> bodies);
+    }
+
+    // Told on the main thread whether a write was committed, only then may the store drop the bodies
+    interface WriteCallback {
+        void onWritten();
+
+        void onFailed();
+    }
+
+    private final Context mContext;
+    private final String mDatabaseName;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Room names only contain characters that are safe in a file name, see ChatRooms
+    MessageSpill(Context context, String room) {
+        super(context.getApplicationContext(), databaseName(room), null, DATABASE_VERSION);
+        mContext = context.getApplicationContext();
+        mDatabaseName = databaseName(room);
+        // Whatever a killed process left behind belongs to a store that's gone
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mContext.deleteDatabase(mDatabaseName);
+            }
+        });
+    }
+
+    private static String databaseName(String room) {
+        return "message_spill_" + room + ".db";
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COLUMN_KEY + " TEXT PRIMARY KEY, "
+                + COLUMN_BODY + " BLOB)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    // Writes bodies about to be evicted in the background, in one transaction. Both lists are by position.
+    void write(final List<String> keys, final List<byte[]> bodies, final WriteCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean written = false;
+                try {
+                    writeNow(keys, bodies);
+                    written = true;
+                } catch (SQLiteException e) {
+                    Log.w("FlashChat", "Could not spill " + keys.size() + " messages", e);
+                }
+
+                final boolean committed = written;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (committed) {
+                            callback.onWritten();
+                        } else {
+                            callback.onFailed();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void writeNow(List<String> keys, List<byte[]> bodies) {
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement upsert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE
+                + " (" + COLUMN_KEY + ", " + COLUMN_BODY + ") VALUES (?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < keys.size(); i++) {
+                upsert.clearBindings();
+                upsert.bindString(1, keys.get(i));
+                byte[] body = bodies.get(i);
+                if (body == null) {
+                    upsert.bindNull(2);
+                } else {
+                    upsert.bindBlob(2, body);
+                }
+                upsert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Reads the bodies of these messages in the background. Keys that were never spilled are left out.
+    void load(List<String> keys, final LoadCallback callback) {
+        final List<String> wanted = new ArrayList<>(keys);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Map<String, byte[]> bodies = new HashMap<>();
+                try {
+                    for (int from = 0; from < wanted.size(); from += MAX_KEYS_PER_QUERY) {
+                        loadNow(wanted.subList(from, Math.min(from + MAX_KEYS_PER_QUERY, wanted.size())), bodies);
+                    }
+                } catch (SQLiteException e) {
+                    Log.w("FlashChat", "Could not load " + wanted.size() + " spilled messages", e);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onLoaded(bodies);
+                    }
+                });
+            }
+        });
+    }
+
+    private void loadNow(List<String> keys, Map<String, byte[]> bodies) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < keys.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_KEY + ", " + COLUMN_BODY + " FROM " + TABLE
+                + " WHERE " + COLUMN_KEY + " IN (" + placeholders + ")", keys.toArray(new String[0]));
+        try {
+            while (cursor.moveToNext()) {
+                bodies.put(cursor.getString(0), cursor.isNull(1) ? null : cursor.getBlob(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Drops everything that was spilled, after the writes and loads already queued
+    void release() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                close();
+                mContext.deleteDatabase(mDatabaseName);
+            }
+        });
+        mExecutor.shutdown();
+    }
+}
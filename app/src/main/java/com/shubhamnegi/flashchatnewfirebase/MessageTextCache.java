@@ -0,0 +1,128 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    Measures message bodies on a background thread, so that binding a row only attaches text that is already measured.
+
+    Most of the time of setText() on a long message goes into measuring every glyph of the body. PrecomputedTextCompat
+    does that work up front, and a TextView given the result with TextViewCompat.setPrecomputedText() skips it.
+    The measured texts are kept in an LruCache keyed by push key, the least recently drawn ones are evicted first.
+
+    A measured text is only valid for the text metrics (text size, font, font scale...) it was made for. They are tracked,
+    and when they change every cached text is thrown away and texts that are still being measured for the old ones are
+    ignored when they come back. The width doesn't matter: PrecomputedText measures the glyphs, the TextView still breaks
+    the lines for whatever width it is laid out in.
+
+    PrecomputedText --> https://developer.android.com/reference/androidx/core/text/PrecomputedTextCompat
+ */
+class MessageTextCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 500;
+
+    private final LruCache<String, PrecomputedTextCompat> mCache;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Push keys being measured right now, so every message is only measured once
+    private final HashSet<String> mInFlight = new HashSet<>();
+    // Push keys in mCache, looking them up here doesn't count as using the entry
+    private final HashSet<String> mCachedKeys = new HashSet<>();
+
+    private PrecomputedTextCompat.Params mParams;
+    // Bumped on every invalidation, results measured for an older generation are dropped
+    private int mGeneration;
+
+    private long mHits;
+    private long mMisses;
+
+    MessageTextCache(int maxEntries) {
+        mCache = new LruCache<String, PrecomputedTextCompat>(maxEntries) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, PrecomputedTextCompat oldValue, PrecomputedTextCompat newValue) {
+                if (newValue == null) mCachedKeys.remove(key);
+            }
+        };
+    }
+
+    // The text metrics of the body TextView, only texts measured with these can be attached to it
+    void setParams(PrecomputedTextCompat.Params params) {
+        if (params == null || params.equals(mParams)) return;
+        if (mParams != null) invalidate("text metrics changed");
+        mParams = params;
+    }
+
+    // Returns the measured body of this message, or null if it isn't ready yet
+    PrecomputedTextCompat get(String key, String body) {
+        PrecomputedTextCompat text = mCache.get(key);
+        // An edited message keeps its key, the cached text must still be the same. Compared char by char, without a copy.
+        if (text != null && !TextUtils.equals(text, body)) {
+            mCache.remove(key);
+            text = null;
+        }
+        if (text == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return text;
+    }
+
+    // Whether the message is measured or being measured, without touching the LRU order
+    boolean isKnown(String key) {
+        return mInFlight.contains(key) || mCachedKeys.contains(key);
+    }
+
+    // Measures the body in the background unless it's cached or being measured already
+    void prefetch(final String key, final String body) {
+        if (mParams == null || body == null || isKnown(key)) return;
+
+        mInFlight.add(key);
+        final PrecomputedTextCompat.Params params = mParams;
+        final int generation = mGeneration;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final PrecomputedTextCompat text = PrecomputedTextCompat.create(body, params);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) return;
+                        mInFlight.remove(key);
+                        mCachedKeys.add(key);
+                        mCache.put(key, text);
+                    }
+                });
+            }
+        });
+    }
+
+    void invalidate(String reason) {
+        Log.d("FlashChat", "Dropping " + mCache.size() + " measured messages, " + reason);
+        mGeneration++;
+        mCache.evictAll();
+        mInFlight.clear();
+    }
+
+    void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "MessageTextCache{size=" + mCache.size()
+                + ", hits=" + mHits
+                + ", misses=" + mMisses
+                + ", evictions=" + mCache.evictionCount() + "}";
+    }
+}
@@ -0,0 +1,205 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Caps how many message bodies the MessageStore keeps in memory, so a chat left open all day doesn't grow until the
+    process is killed. Only the rows in a window around the last bound row stay resident, the bodies of the others are
+    evicted to the MessageSpill and loaded back when their rows come close to the screen again.
+
+    Rows themselves are never dropped, only their bodies, so the list doesn't jump (see MessageStore.evict()).
+    Evicting starts once more than windowSize + windowSize / 2 bodies are resident and brings them back to windowSize,
+    so scrolling doesn't evict a few rows on every frame.
+    A body is only dropped once the spill has committed it. If the write fails the bodies stay resident, and the next
+    trim tries again. One spill is written at a time.
+
+    The window shrinks when the system is short of memory (onTrimMemory(), onLowMemory()), down to MIN_WINDOW_SIZE rows
+    once the chat isn't visible anymore or memory is critical. It's back to its full size when the chat starts again.
+
+    The resident and evicted counts are in the MainChatActivity's dumpsys output, to tune DEFAULT_WINDOW_SIZE.
+    onTrimMemory --> https://developer.android.com/topic/performance/memory#release
+ */
+class MessageWindow implements ComponentCallbacks2 {
+
+    static final int DEFAULT_WINDOW_SIZE = 1000;
+    static final int MIN_WINDOW_SIZE = 100;
+
+    // Evicted rows this close to a bound row are loaded back, a screenful or two ahead of the scroll
+    private static final int RELOAD_DISTANCE = 50;
+
+    private final Context mContext;
+    private final MessageStore mStore;
+    private final MessageSpill mSpill;
+    private final int mDefaultSize;
+
+    private int mWindowSize;
+    // The last bound row, the window is centered on it. Until anything is bound it's the newest message.
+    private int mCenter = -1;
+    // Keys being loaded back right now, so a row isn't asked for twice
+    private final HashSet<String> mLoading = new HashSet<>();
+    // A spill write is on its way, its rows are evicted once it's committed
+    private boolean mSpilling;
+
+    private long mSpilledCount;
+    private long mReloadedCount;
+    private int mTrimCount;
+
+    MessageWindow(Context context, MessageStore store, MessageSpill spill, int windowSize) {
+        mContext = context.getApplicationContext();
+        mStore = store;
+        mSpill = spill;
+        mDefaultSize = windowSize;
+        mWindowSize = windowSize;
+        mContext.registerComponentCallbacks(this);
+    }
+
+    // The chat is back on screen, memory that was given back can be used again
+    void reset() {
+        mWindowSize = mDefaultSize;
+    }
+
+    // A row was bound: the window follows it, and evicted rows around it are loaded back
+    void onBound(int position) {
+        mCenter = position;
+        reload(position - RELOAD_DISTANCE, position + RELOAD_DISTANCE);
+        trim(mWindowSize + mWindowSize / 2);
+    }
+
+    // Messages were added, evicts if that took too many bodies resident
+    void onStoreChanged() {
+        trim(mWindowSize + mWindowSize / 2);
+    }
+
+    // Evicts down to the window once more than maxResident bodies are in memory
+    private void trim(int maxResident) {
+        if (mSpilling || mStore.getResidentCount() <= maxResident) return;
+
+        int from = windowStart();
+        int to = Math.min(mStore.size(), from + mWindowSize);
+        final List<String> keys = new ArrayList<>();
+        final List<byte[]> bodies = new ArrayList<>();
+        mStore.spillOutside(from, to, new MessageStore.EvictionSink() {
+            @Override
+            public void onEvicted(String key, byte[] body) {
+                keys.add(key);
+                bodies.add(body);
+            }
+        });
+        if (keys.isEmpty()) return;
+
+        mSpilling = true;
+        mSpill.write(keys, bodies, new MessageSpill.WriteCallback() {
+            @Override
+            public void onWritten() {
+                mSpilling = false;
+                evict(keys, bodies);
+            }
+
+            @Override
+            public void onFailed() {
+                mSpilling = false;
+            }
+        });
+    }
+
+    // First row of the window around the last bound row. A window at the end of the chat has more room above.
+    private int windowStart() {
+        int center = mCenter < 0 || mCenter >= mStore.size() ? mStore.size() - 1 : mCenter;
+        int from = Math.max(0, center - mWindowSize / 2);
+        int to = Math.min(mStore.size(), from + mWindowSize);
+        return Math.max(0, to - mWindowSize);
+    }
+
+    // Drops the spilled bodies, except those of rows the window moved back over while the spill was written
+    private void evict(List<String> keys, List<byte[]> bodies) {
+        int from = windowStart();
+        int to = from + mWindowSize;
+        int evicted = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            int position = mStore.indexOf(keys.get(i));
+            if (position >= from && position < to) continue;
+            if (mStore.evict(keys.get(i), bodies.get(i))) evicted++;
+        }
+        mSpilledCount += evicted;
+        Log.d("FlashChat", "Evicted " + evicted + " of " + keys.size() + " spilled messages: " + this);
+    }
+
+    private void reload(int from, int to) {
+        // Runs on every bind, nothing is allocated unless there's something to load
+        List<String> keys = null;
+        for (int i = Math.max(0, from); i <= Math.min(to, mStore.size() - 1); i++) {
+            if (!mStore.isEvicted(i)) continue;
+            String key = mStore.getKey(i);
+            if (!mLoading.add(key)) continue;
+            if (keys == null) keys = new ArrayList<>();
+            keys.add(key);
+        }
+        if (keys == null) return;
+
+        final List<String> requested = keys;
+        mSpill.load(keys, new MessageSpill.LoadCallback() {
+            @Override
+            public void onLoaded(Map<String, byte[]> bodies) {
+                for (String key : requested) {
+                    mLoading.remove(key);
+                    if (!bodies.containsKey(key)) continue;
+                    // The store tells the adapter, which rebinds the row with its body
+                    mStore.restore(key, bodies.get(key));
+                    mReloadedCount++;
+                }
+            }
+        });
+    }
+
+    // Shrinks the window to windowSize if it's bigger, and evicts down to it right away
+    private void shrink(int windowSize, String reason) {
+        mTrimCount++;
+        if (windowSize < mWindowSize) mWindowSize = windowSize;
+        trim(mWindowSize);
+        Log.d("FlashChat", "Message window trimmed, " + reason + ": " + this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            // Also covers TRIM_MEMORY_UI_HIDDEN and the background levels, nobody is looking at the chat
+            shrink(MIN_WINDOW_SIZE, "level " + level);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            shrink(Math.max(MIN_WINDOW_SIZE, mDefaultSize / 4), "level " + level);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            shrink(Math.max(MIN_WINDOW_SIZE, mDefaultSize / 2), "level " + level);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        shrink(MIN_WINDOW_SIZE, "low memory");
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    void release() {
+        mContext.unregisterComponentCallbacks(this);
+        mSpill.release();
+    }
+
+    @Override
+    public String toString() {
+        return "MessageWindow{window=" + mWindowSize
+                + ", resident=" + mStore.getResidentCount()
+                + ", evicted=" + mStore.getEvictedCount()
+                + ", spilled=" + mSpilledCount
+                + ", reloaded=" + mReloadedCount
+                + ", trims=" + mTrimCount + "}";
+    }
+}
@@ -0,0 +1,111 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+/*
+    Debug screen with the latency histograms of ChatMetrics, refreshed every second while it's visible.
+    It also switches the chat to the LoopbackTransport and starts and stops LoadGenerator runs.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    private static final long REFRESH_MILLIS = 1000;
+
+    private TextView mMetricsText;
+    private Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            showMetrics();
+            mHandler.postDelayed(this, REFRESH_MILLIS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        mMetricsText = (TextView) findViewById(R.id.metrics_text);
+        Button resetButton = (Button) findViewById(R.id.metrics_reset);
+        resetButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                ChatMetrics.get().reset();
+                showMetrics();
+            }
+        });
+
+        CheckBox loopbackBox = (CheckBox) findViewById(R.id.metrics_loopback);
+        loopbackBox.setChecked(LoopbackTransport.isEnabled(this));
+        loopbackBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                LoopbackTransport.setEnabled(MetricsActivity.this, isChecked);
+                if (!isChecked) LoadGenerator.getInstance().stop();
+            }
+        });
+
+        LinearLayout profiles = (LinearLayout) findViewById(R.id.metrics_load_profiles);
+        for (final LoadGenerator.Profile profile : LoadGenerator.PROFILES) {
+            Button button = new Button(this);
+            button.setText(profile.name);
+            button.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    LoadGenerator.getInstance().start(profile);
+                    showMetrics();
+                }
+            });
+            profiles.addView(button, new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1));
+        }
+
+        Button stopButton = (Button) findViewById(R.id.metrics_load_stop);
+        stopButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                LoadGenerator.getInstance().stop();
+                showMetrics();
+            }
+        });
+    }
+
+    private void showMetrics() {
+        LoadGenerator generator = LoadGenerator.getInstance();
+        mMetricsText.setText(ChatMetrics.get().dump() + (generator.isRunning() ? "\n" + generator : ""));
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        mHandler.post(mRefresh);
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        mHandler.removeCallbacks(mRefresh);
+    }
+
+    // adb shell dumpsys activity com.shubhamnegi.flashchatnewfirebase/.MetricsActivity
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        ChatMetrics.get().dump(prefix, writer);
+        StartupTrace.get().dump(prefix, writer);
+    }
+}
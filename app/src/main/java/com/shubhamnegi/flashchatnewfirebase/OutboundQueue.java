@@ -0,0 +1,435 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    Sends the user's messages through the ChatTransport in order, in batches, and keeps trying until they are written.
+
+      - Every message gets its push key the moment it's queued. Push keys are generated on the device and increase
+        with time, so the keys alone keep the messages in the order they were typed.
+      - Messages typed in quick succession are collected for BATCH_DELAY_MILLIS and written together with one
+        ChatTransport.write(), for Firebase one multi-path updateChildren() which it applies atomically.
+      - Only one write is in flight at a time, so a later batch can never overtake an earlier one.
+      - A failed write is retried with exponential backoff. Writing a message twice is harmless, it has the same key both times.
+        A retried batch and the messages restored from the outbox are written with mayBeStored, so the transport doesn't
+        count them in the room's summary again.
+      - Pending messages are saved to an "outbox" table, so they are still sent if the app is killed before they made it.
+        Every row remembers its room. Messages left behind in another room go out the next time that room is opened.
+      - A write the rules reject (permission denied) would fail forever, so those messages are dropped instead of retried.
+
+    The Listener hears about every message as it's queued, written or failed, so the chat can show it before Firebase has it.
+
+    Multi-path updates --> https://firebase.google.com/docs/database/android/read-and-write#update_specific_fields
+ */
+class OutboundQueue {
+
+    // Messages queued within this window go out in the same write
+    private static final long BATCH_DELAY_MILLIS = 100;
+    private static final int MAX_BATCH_SIZE = 50;
+
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60 * 1000;
+
+    // Called on the main thread with the push key of the message
+    interface Listener {
+        void onQueued(String key, InstantMessage message);
+
+        void onWritten(String key);
+
+        // retrying is false when the message was dropped
+        void onFailed(String key, boolean retrying);
+    }
+
+    private final ChatTransport mTransport;
+    private final String mRoom;
+    private final Outbox mOutbox;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Random mRandom = new Random();
+
+    // Messages waiting to be written, oldest first. Only touched on the main thread.
+    private final ArrayList<PendingMessage> mPending = new ArrayList<>();
+    private Listener mListener;
+    private List<PendingMessage> mInFlight;
+    private boolean mFlushScheduled;
+    private int mConsecutiveFailures;
+    // Nothing is written before the messages left over from last time are back in the queue, they go first
+    private boolean mRestoring = true;
+    private boolean mReleased;
+
+    // Metrics
+    private long mSentCount;
+    private long mBatchCount;
+    private long mRetryCount;
+    private long mLastWriteLatencyMillis;
+    private long mTotalWriteLatencyMillis;
+    private long mMaxWriteLatencyMillis;
+
+    static class PendingMessage {
+        final String key;
+        final InstantMessage message;
+        final long queuedAt;
+        // A write of it was tried before, in this process or before the app was killed, and may have been stored
+        boolean attempted;
+
+        PendingMessage(String key, InstantMessage message, long queuedAt) {
+            this.key = key;
+            this.message = message;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            flush();
+        }
+    };
+
+    // Sends the messages of one room, the transport has to be the room's
+    OutboundQueue(Context context, ChatTransport transport, String room) {
+        mTransport = transport;
+        mRoom = room;
+        mOutbox = new Outbox(context, transport.isPersistent());
+        restorePending();
+    }
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    // Queues a message and returns its push key
+    String enqueue(InstantMessage message) {
+        String key = mTransport.newKey();
+        final PendingMessage pending = new PendingMessage(key, message, SystemClock.elapsedRealtime());
+        mPending.add(pending);
+        if (mListener != null) mListener.onQueued(key, message);
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mOutbox.insert(mRoom, pending);
+            }
+        });
+
+        scheduleFlush(BATCH_DELAY_MILLIS);
+        return key;
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        if (mReleased || mFlushScheduled || mInFlight != null) return;
+        mFlushScheduled = true;
+        mMainHandler.postDelayed(mFlushRunnable, delayMillis);
+    }
+
+    private void flush() {
+        if (mRestoring || mInFlight != null || mPending.isEmpty()) return;
+
+        final List<PendingMessage> batch = new ArrayList<>(mPending.subList(0, Math.min(MAX_BATCH_SIZE, mPending.size())));
+        mInFlight = batch;
+
+        // One write for the whole batch: "<key>": message for every message
+        Map<String, InstantMessage> updates = new HashMap<>();
+        boolean mayBeStored = false;
+        for (PendingMessage pending : batch) {
+            updates.put(pending.key, pending.message);
+            mayBeStored |= pending.attempted;
+            pending.attempted = true;
+        }
+
+        final long startedAt = SystemClock.elapsedRealtime();
+        mTransport.write(updates, mayBeStored, new ChatTransport.WriteCallback() {
+            @Override
+            public void onWritten() {
+                if (mReleased) return;
+                mInFlight = null;
+                onBatchWritten(batch, SystemClock.elapsedRealtime() - startedAt);
+            }
+
+            @Override
+            public void onFailed(String reason, boolean permanent) {
+                if (mReleased) return;
+                mInFlight = null;
+                onBatchFailed(batch, reason, permanent);
+            }
+        });
+    }
+
+    private void onBatchWritten(final List<PendingMessage> batch, long latencyMillis) {
+        mPending.removeAll(batch);
+        mConsecutiveFailures = 0;
+
+        mBatchCount++;
+        mSentCount += batch.size();
+        mLastWriteLatencyMillis = latencyMillis;
+        mTotalWriteLatencyMillis += latencyMillis;
+        mMaxWriteLatencyMillis = Math.max(mMaxWriteLatencyMillis, latencyMillis);
+        long now = SystemClock.elapsedRealtime();
+        for (PendingMessage pending : batch) {
+            // Includes the time spent waiting in the queue, that's what the user experiences
+            ChatMetrics.get().sendToAck.recordMillis(now - pending.queuedAt);
+        }
+        Log.d("FlashChat", "Sent " + batch.size() + " messages in one write: " + this);
+
+        deleteFromOutbox(batch);
+        if (mListener != null) {
+            for (PendingMessage pending : batch) {
+                mListener.onWritten(pending.key);
+            }
+        }
+
+        if (!mPending.isEmpty()) scheduleFlush(0);
+    }
+
+    private void onBatchFailed(List<PendingMessage> batch, String reason, boolean permanent) {
+        boolean retrying = !permanent;
+        if (mListener != null) {
+            for (PendingMessage pending : batch) {
+                mListener.onFailed(pending.key, retrying);
+            }
+        }
+
+        if (!retrying) {
+            Log.w("FlashChat", "Dropping " + batch.size() + " messages: " + reason);
+            mPending.removeAll(batch);
+            deleteFromOutbox(batch);
+            if (!mPending.isEmpty()) scheduleFlush(0);
+            return;
+        }
+
+        mConsecutiveFailures++;
+        mRetryCount++;
+
+        // Random jitter in the upper half, so that many clients failing at once don't all retry at the same moment
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(mConsecutiveFailures - 1, 16));
+        long delay = ceiling / 2 + (long) (mRandom.nextDouble() * ceiling / 2);
+        Log.d("FlashChat", "Writing " + batch.size() + " messages failed (" + reason + "), retrying in " + delay + "ms");
+
+        scheduleFlush(delay);
+    }
+
+    private void deleteFromOutbox(final List<PendingMessage> batch) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mOutbox.delete(batch);
+            }
+        });
+    }
+
+    // Reads the messages that were still waiting when the app was last killed
+    private void restorePending() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<PendingMessage> restored = mOutbox.loadAll(mRoom);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mReleased) return;
+                        mRestoring = false;
+                        // Messages queued while we were reading the outbox are in there too, keep a single copy of each
+                        for (PendingMessage pending : restored) {
+                            if (containsKey(pending.key)) continue;
+                            mPending.add(pending);
+                            if (mListener != null) mListener.onQueued(pending.key, pending.message);
+                        }
+                        Collections.sort(mPending, new Comparator<PendingMessage>() {
+                            @Override
+                            public int compare(PendingMessage a, PendingMessage b) {
+                                return a.key.compareTo(b.key);
+                            }
+                        });
+                        if (!restored.isEmpty()) Log.d("FlashChat", "Restored " + restored.size() + " unsent messages");
+                        if (!mPending.isEmpty()) scheduleFlush(0);
+                    }
+                });
+            }
+        });
+    }
+
+    private boolean containsKey(String key) {
+        for (PendingMessage pending : mPending) {
+            if (pending.key.equals(key)) return true;
+        }
+        return false;
+    }
+
+    /*
+        Stops sending and closes the outbox once the rows already handed to the background thread are saved.
+        Whatever is still pending stays in the outbox and is sent the next time the room is opened, that includes a write
+        in flight right now: its answer is ignored, so the outbox can't be touched after it was closed.
+     */
+    void release() {
+        mReleased = true;
+        mListener = null;
+        mMainHandler.removeCallbacks(mFlushRunnable);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mOutbox.close();
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    // Number of messages not confirmed by Firebase yet, including the ones being written
+    int getDepth() {
+        return mPending.size();
+    }
+
+    long getSentCount() {
+        return mSentCount;
+    }
+
+    long getRetryCount() {
+        return mRetryCount;
+    }
+
+    long getLastWriteLatencyMillis() {
+        return mLastWriteLatencyMillis;
+    }
+
+    long getAverageWriteLatencyMillis() {
+        return mBatchCount == 0 ? 0 : mTotalWriteLatencyMillis / mBatchCount;
+    }
+
+    long getMaxWriteLatencyMillis() {
+        return mMaxWriteLatencyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboundQueue{depth=" + getDepth()
+                + ", sent=" + mSentCount
+                + ", batches=" + mBatchCount
+                + ", retries=" + mRetryCount
+                + ", lastLatency=" + mLastWriteLatencyMillis + "ms"
+                + ", avgLatency=" + getAverageWriteLatencyMillis() + "ms"
+                + ", maxLatency=" + mMaxWriteLatencyMillis + "ms}";
+    }
+
+    // The messages waiting to be sent, on disk. Only used from the queue's background thread.
+    private static class Outbox extends SQLiteOpenHelper {
+
+        private static final String DATABASE_NAME = "outbox.db";
+        // Version 2 added sent_at, version 3 the room, version 4 the author's uid
+        private static final int DATABASE_VERSION = 4;
+
+        private static final String TABLE = "outbox";
+        private static final String COLUMN_KEY = "push_key";
+        private static final String COLUMN_AUTHOR = "author";
+        private static final String COLUMN_BODY = "body";
+        private static final String COLUMN_SENT_AT = "sent_at";
+        private static final String COLUMN_ROOM = "room";
+        private static final String COLUMN_UID = "uid";
+
+        // With onDisk false the outbox is an in-memory database, messages for a transport that forgets everything shouldn't outlive it
+        Outbox(Context context, boolean onDisk) {
+            super(context.getApplicationContext(), onDisk ? DATABASE_NAME : null, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " ("
+                    + COLUMN_KEY + " TEXT PRIMARY KEY, "
+                    + COLUMN_AUTHOR + " TEXT, "
+                    + COLUMN_BODY + " TEXT, "
+                    + COLUMN_SENT_AT + " INTEGER, "
+                    + COLUMN_ROOM + " TEXT, "
+                    + COLUMN_UID + " TEXT)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // The rows are messages the user hasn't sent yet, so the table is migrated instead of recreated
+            if (oldVersion < 2) {
+                db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN " + COLUMN_SENT_AT + " INTEGER");
+            }
+            if (oldVersion < 3) {
+                // There was only one chat before rooms, its messages now go to the room everyone starts in
+                db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN " + COLUMN_ROOM + " TEXT");
+                db.execSQL("UPDATE " + TABLE + " SET " + COLUMN_ROOM + " = ?", new Object[]{ChatRooms.DEFAULT_ROOM});
+            }
+            if (oldVersion < 4) {
+                // Rows from before have the display name in author and are sent like that
+                db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN " + COLUMN_UID + " TEXT");
+            }
+        }
+
+        void insert(String room, PendingMessage pending) {
+            try {
+                getWritableDatabase().execSQL("INSERT OR REPLACE INTO " + TABLE
+                                + " (" + COLUMN_KEY + ", " + COLUMN_AUTHOR + ", " + COLUMN_BODY + ", " + COLUMN_SENT_AT + ", " + COLUMN_ROOM + ", " + COLUMN_UID + ") VALUES (?, ?, ?, ?, ?, ?)",
+                        new Object[]{pending.key, pending.message.getAuthor(), pending.message.getMessage(), pending.message.getSentAt(), room, pending.message.getUid()});
+            } catch (SQLiteException e) {
+                Log.w("FlashChat", "Could not save unsent message " + pending.key, e);
+            }
+        }
+
+        void delete(List<PendingMessage> batch) {
+            SQLiteDatabase db;
+            try {
+                db = getWritableDatabase();
+            } catch (SQLiteException e) {
+                Log.w("FlashChat", "Could not open the outbox", e);
+                return;
+            }
+            db.beginTransaction();
+            try {
+                for (PendingMessage pending : batch) {
+                    db.delete(TABLE, COLUMN_KEY + " = ?", new String[]{pending.key});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        List<PendingMessage> loadAll(String room) {
+            List<PendingMessage> pending = new ArrayList<>();
+            Cursor cursor = null;
+            try {
+                cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_KEY + ", " + COLUMN_AUTHOR + ", " + COLUMN_BODY + ", " + COLUMN_SENT_AT + ", " + COLUMN_UID
+                        + " FROM " + TABLE + " WHERE " + COLUMN_ROOM + " = ? ORDER BY " + COLUMN_KEY, new String[]{room});
+                long now = SystemClock.elapsedRealtime();
+                while (cursor.moveToNext()) {
+                    // Rows saved before version 2 have no sent_at, they still get a server timestamp
+                    Long sentAt = cursor.isNull(3) ? null : cursor.getLong(3);
+                    InstantMessage message = cursor.isNull(4)
+                            ? new InstantMessage(cursor.getString(2), cursor.getString(1), sentAt)
+                            : InstantMessage.fromUser(cursor.getString(4), cursor.getString(2), sentAt);
+                    PendingMessage restored = new PendingMessage(cursor.getString(0), message, now);
+                    // The app may have been killed after the write went through but before the row was deleted
+                    restored.attempted = true;
+                    pending.add(restored);
+                }
+            } catch (SQLiteException e) {
+                Log.w("FlashChat", "Could not read the outbox", e);
+            } finally {
+                if (cursor != null) cursor.close();
+            }
+            return pending;
+        }
+    }
+}
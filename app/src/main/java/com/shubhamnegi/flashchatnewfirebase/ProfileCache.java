@@ -0,0 +1,119 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Display names of the users whose messages are on screen, by uid. Messages only carry the author's uid.
+
+    Every user publishes their name through the ChatTransport when they sign in, for Firebase at users/<uid>/displayName.
+    The first getName() of a uid subscribes to it with ChatTransport.subscribeDisplayName(), and the subscription stays
+    while the uid is cached: a rename reaches every chat that shows the user's messages, and the Listeners are told so
+    the rows can be rebound. Nothing is ever read twice.
+
+    Only the MAX_PROFILES most recently used names are kept. Evicting one cancels its subscription, so a chat with
+    thousands of authors doesn't keep thousands of listeners. The next getName() of an evicted uid subscribes again.
+
+    One cache per process, only used on the main thread. Names don't depend on the room, so it works with the transport
+    of any room. It's made again, empty, when the chat switches to another kind of transport, e.g. the LoopbackTransport.
+ */
+class ProfileCache {
+
+    static final int MAX_PROFILES = 200;
+
+    interface Listener {
+        // The name of this uid arrived or changed
+        void onProfileChanged(String uid);
+    }
+
+    private static ProfileCache sInstance;
+
+    private final ChatTransport mTransport;
+    private final LruCache<String, Profile> mProfiles;
+    private final List<Listener> mListeners = new ArrayList<>();
+    // Set once another kind of transport took over, names aren't subscribed to anymore
+    private boolean mReleased;
+
+    // Hits and misses of getName(), for the metrics
+    private long mHits;
+    private long mMisses;
+
+    private class Profile implements ChatTransport.NameListener {
+        final String uid;
+        ChatTransport.Subscription subscription;
+        // Null until it arrives, or if the user never published one
+        String name;
+
+        Profile(String uid) {
+            this.uid = uid;
+        }
+
+        @Override
+        public void onDisplayName(String newName) {
+            if (newName == null ? name == null : newName.equals(name)) return;
+            name = newName;
+            for (int i = 0; i < mListeners.size(); i++) {
+                mListeners.get(i).onProfileChanged(uid);
+            }
+        }
+    }
+
+    private ProfileCache(ChatTransport transport) {
+        mTransport = transport;
+        mProfiles = new LruCache<String, Profile>(MAX_PROFILES) {
+            @Override
+            protected void entryRemoved(boolean evicted, String uid, Profile oldValue, Profile newValue) {
+                oldValue.subscription.cancel();
+            }
+        };
+    }
+
+    /*
+        A switch to another kind of transport cancels every subscription of the old cache. An adapter made before it
+        keeps the cache it got until it goes away, and only sees the names that had arrived.
+     */
+    static ProfileCache getInstance(ChatTransport transport) {
+        if (sInstance == null || sInstance.mTransport.getClass() != transport.getClass()) {
+            if (sInstance != null) {
+                sInstance.mReleased = true;
+                // entryRemoved() cancels each one
+                sInstance.mProfiles.evictAll();
+            }
+            sInstance = new ProfileCache(transport);
+        }
+        return sInstance;
+    }
+
+    // The display name of the uid, or null while it's being loaded. The Listeners hear when it arrives.
+    String getName(String uid) {
+        Profile profile = mProfiles.get(uid);
+        if (profile != null) {
+            mHits++;
+            return profile.name;
+        }
+        mMisses++;
+        if (mReleased) return null;
+        profile = new Profile(uid);
+        mProfiles.put(uid, profile);
+        profile.subscription = mTransport.subscribeDisplayName(uid, profile);
+        return null;
+    }
+
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    @Override
+    public String toString() {
+        return "ProfileCache{size=" + mProfiles.size() + "/" + MAX_PROFILES
+                + ", hits=" + mHits
+                + ", misses=" + mMisses
+                + ", evictions=" + mProfiles.evictionCount() + "}";
+    }
+}
@@ -0,0 +1,222 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Read receipts for the open room without a write per message and reader. Every member has a single read mark per room,
+    the push key of the newest message they have seen (ChatTransport.writeReadMark()). Everything up to it counts as read.
+
+    Our own mark follows the last message that was completely on screen, see onRead(). It only moves forward and is
+    written at most once every WRITE_INTERVAL_MILLIS: scrolling through a hundred messages is one write, not a hundred.
+    What's still waiting is written when the chat stops.
+
+    Everything else is worked out from the marks on this device (see ReadMarks):
+      - "seen by": how many other members have a mark at or after one of our messages, readersOf()
+      - unread: the messages after our mark. The room list gets the count of messages up to our mark, the room's message
+        count minus the ones after it, so it can subtract that from the room's summary (see ChatRooms.getSeenCount()).
+        That count is only known for rooms opened on this device, and is right as long as the store holds every
+        message after the mark, which it does unless the chat jumped back in time and left a gap.
+
+    Only used on the main thread.
+ */
+class ReadReceipts {
+
+    static final long WRITE_INTERVAL_MILLIS = 3000;
+
+    /*
+        Told when someone else's mark moved, so the "seen by" of the rows on screen can be redrawn.
+        Only messages after fromKey and up to toKey have a different number of readers now: a mark moving from one key to
+        another changes the rows between the two. fromKey is null if the rows from the first message on changed.
+     */
+    interface Listener {
+        void onReadMarksChanged(String fromKey, String toKey);
+    }
+
+    private final Context mContext;
+    private final ChatTransport mTransport;
+    private final MessageStore mStore;
+    private final String mRoom;
+    private final String mUid;
+    private final ReadMarks mMarks = new ReadMarks();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    private ChatTransport.Subscription mMarksSubscription;
+    private ChatTransport.Subscription mCountSubscription;
+
+    // The keys the marks moved between since the listeners were last told, see Listener
+    private boolean mChanged;
+    private String mChangedFrom;
+    private String mChangedTo;
+
+    // Our mark that's waiting for the next write, null if there's nothing to write
+    private String mPendingKey;
+    private long mNextWriteAt;
+    // How many messages the room has, -1 until the transport told us
+    private long mRoomCount = -1;
+    private long mSeenCount = -1;
+
+    // Reads that moved our mark, and writes they turned into
+    private long mReadCount;
+    private long mWriteCount;
+
+    ReadReceipts(Context context, ChatTransport transport, MessageStore store, String room, String uid) {
+        mContext = context.getApplicationContext();
+        mTransport = transport;
+        mStore = store;
+        mRoom = room;
+        mUid = uid;
+    }
+
+    void start() {
+        if (mMarksSubscription != null) return;
+        mMarksSubscription = mTransport.subscribeReadMarks(mMarksListener);
+        mCountSubscription = mTransport.subscribeMessageCount(new ChatTransport.CountListener() {
+            @Override
+            public void onCount(long count) {
+                mRoomCount = count;
+                updateSeenCount();
+            }
+        });
+    }
+
+    // Writes what's still waiting and stops listening. The marks are kept, start() brings them up to date again.
+    void stop() {
+        if (mMarksSubscription == null) return;
+        mMainHandler.removeCallbacks(mWrite);
+        mMainHandler.removeCallbacks(mNotify);
+        write();
+        mMarksSubscription.cancel();
+        mCountSubscription.cancel();
+        mMarksSubscription = null;
+        mCountSubscription = null;
+    }
+
+    private ChatTransport.ReadMarkListener mMarksListener = new ChatTransport.ReadMarkListener() {
+        @Override
+        public void onReadMark(String uid, String key) {
+            if (uid.equals(mUid)) {
+                // Our own mark, read further on another device. A mark behind ours is this device's older write coming back.
+                if (key != null && mMarks.advance(uid, key)) updateSeenCount();
+                return;
+            }
+            String previous = mMarks.get(uid);
+            if (!mMarks.set(uid, key)) return;
+            widenChanged(previous, key);
+            // Marks of several members often arrive together, the rows are redrawn once for all of them
+            mMainHandler.removeCallbacks(mNotify);
+            mMainHandler.post(mNotify);
+        }
+
+        @Override
+        public void onCancelled(String reason) {
+            Log.d("FlashChat", "Read marks listener cancelled: " + reason);
+        }
+    };
+
+    // Adds the rows between a mark's old and new key (either may be null) to the ones the listeners will be told about
+    private void widenChanged(String previous, String key) {
+        String from = previous == null || key == null ? null : (previous.compareTo(key) < 0 ? previous : key);
+        String to = previous == null ? key : key == null ? previous : (previous.compareTo(key) > 0 ? previous : key);
+        if (!mChanged) {
+            mChanged = true;
+            mChangedFrom = from;
+            mChangedTo = to;
+            return;
+        }
+        if (from == null || (mChangedFrom != null && from.compareTo(mChangedFrom) < 0)) mChangedFrom = from;
+        if (to.compareTo(mChangedTo) > 0) mChangedTo = to;
+    }
+
+    private Runnable mNotify = new Runnable() {
+        @Override
+        public void run() {
+            if (!mChanged) return;
+            mChanged = false;
+            for (int i = 0; i < mListeners.size(); i++) {
+                mListeners.get(i).onReadMarksChanged(mChangedFrom, mChangedTo);
+            }
+        }
+    };
+
+    private Runnable mWrite = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    // The message at this position was completely on screen. Moves our mark there if it's newer.
+    void onRead(int position) {
+        if (mMarksSubscription == null || position < 0 || position >= mStore.size()) return;
+        String key = mStore.getKey(position);
+        if (!ReadMarks.isAfter(key, mPendingKey != null ? mPendingKey : mMarks.get(mUid))) return;
+
+        mReadCount++;
+        mPendingKey = key;
+        long wait = mNextWriteAt - SystemClock.elapsedRealtime();
+        if (wait <= 0) {
+            write();
+        } else {
+            // Already waiting for the interval to pass, the newer key is written instead
+            mMainHandler.removeCallbacks(mWrite);
+            mMainHandler.postDelayed(mWrite, wait);
+        }
+    }
+
+    private void write() {
+        if (mPendingKey == null) return;
+        String key = mPendingKey;
+        mPendingKey = null;
+        mNextWriteAt = SystemClock.elapsedRealtime() + WRITE_INTERVAL_MILLIS;
+        if (!mMarks.advance(mUid, key)) return;
+        mTransport.writeReadMark(mUid, key);
+        mWriteCount++;
+        updateSeenCount();
+    }
+
+    // Tells the room list how many of the room's messages we have read, if that changed
+    private void updateSeenCount() {
+        String mark = mMarks.get(mUid);
+        if (mark == null || mRoomCount < 0) return;
+        long seen = Math.max(0, mRoomCount - getUnreadCount());
+        if (seen == mSeenCount) return;
+        mSeenCount = seen;
+        ChatRooms.setSeenCount(mContext, mRoom, seen);
+    }
+
+    // How many other members have read the message at this position
+    int readersOf(int position) {
+        return mMarks.readersOf(mStore.getKey(position), mUid);
+    }
+
+    // Loaded messages after our mark, all of them if we never read anything
+    int getUnreadCount() {
+        String mark = mMarks.get(mUid);
+        return mark == null ? mStore.size() : mStore.size() - mStore.positionAfter(mark);
+    }
+
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    @Override
+    public String toString() {
+        return "ReadReceipts{members=" + mMarks.size()
+                + ", mark=" + mMarks.get(mUid)
+                + ", unread=" + getUnreadCount()
+                + ", reads=" + mReadCount
+                + ", writes=" + mWriteCount + "}";
+    }
+}
@@ -182,6 +182,9 @@ public class RegisterActivity extends AppCompatActivity {
          *  This can be solved by persisting username in Firebase instead of local storage (Shared Preferences) as below:
          */
         if (user !=null) {
+            // Messages only carry the uid, everyone else reads the name from here (see ProfileCache)
+            ChatRepository.newTransport(this, ChatRooms.getCurrent(this)).publishDisplayName(user.getUid(), displayName);
+
             UserProfileChangeRequest profileUpdates = new UserProfileChangeRequest.Builder()
                     .setDisplayName(displayName)
                     .build();
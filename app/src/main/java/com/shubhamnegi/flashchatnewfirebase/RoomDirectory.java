@@ -0,0 +1,113 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+    The rooms for the room list, most recently active first, read from the room-summaries node only.
+
+    Each room's summary is updated in the same write as its messages (see FirebaseTransport.write()), so one
+    ChildEventListener on the summaries is all the room list needs, however many rooms and messages there are.
+    Ordered by the summaries' timestamp (".indexOn" in database.rules.json), only the MAX_ROOMS most recently active rooms are loaded.
+
+    Every callback arrives on the main thread.
+ */
+class RoomDirectory {
+
+    static final int MAX_ROOMS = 100;
+
+    interface Listener {
+        // rooms is newest first, and owned by the directory
+        void onRoomsChanged(List<RoomSummary> rooms);
+    }
+
+    private final Query mQuery;
+    private final List<RoomSummary> mRooms = new ArrayList<>();
+    private Listener mListener;
+
+    RoomDirectory(DatabaseReference root) {
+        mQuery = root.child(FirebaseTransport.SUMMARIES).orderByChild("timestamp").limitToLast(MAX_ROOMS);
+    }
+
+    void start(Listener listener) {
+        mListener = listener;
+        mQuery.addChildEventListener(mChildListener);
+    }
+
+    void stop() {
+        mQuery.removeEventListener(mChildListener);
+        mListener = null;
+        mRooms.clear();
+    }
+
+    private ChildEventListener mChildListener = new ChildEventListener() {
+        @Override
+        public void onChildAdded(@NonNull DataSnapshot dataSnapshot, String previousChildName) {
+            put(dataSnapshot);
+        }
+
+        @Override
+        public void onChildChanged(@NonNull DataSnapshot dataSnapshot, String previousChildName) {
+            put(dataSnapshot);
+        }
+
+        @Override
+        public void onChildRemoved(@NonNull DataSnapshot dataSnapshot) {
+            remove(dataSnapshot.getKey());
+            publish();
+        }
+
+        // A new message moves its room to the top, the sort in publish() takes care of that
+        @Override
+        public void onChildMoved(@NonNull DataSnapshot dataSnapshot, String previousChildName) {
+        }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError databaseError) {
+            Log.d("FlashChat", "Room list cancelled: " + databaseError.getMessage());
+        }
+    };
+
+    private void put(DataSnapshot snapshot) {
+        RoomSummary summary = RoomSummary.fromValue(snapshot.getKey(), snapshot.getValue());
+        if (summary == null || !ChatRooms.isValidName(summary.getRoom())) return;
+        remove(summary.getRoom());
+        mRooms.add(summary);
+        publish();
+    }
+
+    private void remove(String room) {
+        for (int i = 0; i < mRooms.size(); i++) {
+            if (mRooms.get(i).getRoom().equals(room)) {
+                mRooms.remove(i);
+                return;
+            }
+        }
+    }
+
+    private void publish() {
+        Collections.sort(mRooms, NEWEST_FIRST);
+        if (mListener != null) mListener.onRoomsChanged(mRooms);
+    }
+
+    private static final Comparator<RoomSummary> NEWEST_FIRST = new Comparator<RoomSummary>() {
+        @Override
+        public int compare(RoomSummary a, RoomSummary b) {
+            long timeA = a.getTimestamp() == null ? 0 : a.getTimestamp();
+            long timeB = b.getTimestamp() == null ? 0 : b.getTimestamp();
+            return timeA < timeB ? 1 : timeA > timeB ? -1 : 0;
+        }
+    };
+}
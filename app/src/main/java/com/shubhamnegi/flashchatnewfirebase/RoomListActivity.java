@@ -0,0 +1,121 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Lists the chat rooms, most recently active first, with their newest message and unread count.
+    The whole list comes from one listener on the room summaries, see RoomDirectory. No messages are read.
+
+    Picking a room makes it the current one and goes back to the chat, which switches rooms in its onStart().
+    Opened by tapping the room name at the top of the chat.
+ */
+public class RoomListActivity extends AppCompatActivity {
+
+    private RoomDirectory mDirectory;
+    private RoomListAdapter mAdapter;
+    private String mCurrentRoom;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_room_list);
+
+        RecyclerView roomList = (RecyclerView) findViewById(R.id.room_list_view);
+        roomList.setLayoutManager(new LinearLayoutManager(this));
+        mAdapter = new RoomListAdapter(this, ChatRepository.newTransport(this, ChatRooms.getCurrent(this)), new RoomListAdapter.OnRoomClickListener() {
+            @Override
+            public void onRoomClick(RoomSummary room) {
+                openRoom(room.getRoom());
+            }
+        });
+        roomList.setAdapter(mAdapter);
+
+        Button joinButton = (Button) findViewById(R.id.room_join);
+        joinButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showJoinRoomDialog();
+            }
+        });
+
+        mDirectory = new RoomDirectory(FirebaseDatabase.getInstance().getReference());
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        mCurrentRoom = ChatRooms.getCurrent(this);
+        mAdapter.setRooms(withCurrentRoom(new ArrayList<RoomSummary>()));
+        mDirectory.start(new RoomDirectory.Listener() {
+            @Override
+            public void onRoomsChanged(List<RoomSummary> rooms) {
+                mAdapter.setRooms(withCurrentRoom(rooms));
+            }
+        });
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        mDirectory.stop();
+    }
+
+    // The current room is listed even before it has a summary, i.e. before anyone wrote to it
+    private List<RoomSummary> withCurrentRoom(List<RoomSummary> rooms) {
+        List<RoomSummary> listed = new ArrayList<>(rooms);
+        for (RoomSummary room : rooms) {
+            if (room.getRoom().equals(mCurrentRoom)) return listed;
+        }
+        listed.add(0, new RoomSummary(mCurrentRoom, null, null, null, 0));
+        return listed;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mAdapter.cleanup();
+    }
+
+    private void openRoom(String room) {
+        ChatRooms.setCurrent(this, room);
+        finish();
+    }
+
+    // Rooms are made by writing to them, so joining a room nobody used yet is how a new one is started
+    private void showJoinRoomDialog() {
+        final EditText roomInput = new EditText(this);
+        roomInput.setHint(R.string.prompt_room);
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.title_join_room)
+                .setView(roomInput)
+                .setPositiveButton(R.string.action_join_room, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String room = roomInput.getText().toString().trim();
+                        if (!ChatRooms.isValidName(room)) {
+                            Toast.makeText(RoomListActivity.this, R.string.error_invalid_room, Toast.LENGTH_SHORT).show();
+                            return;
+                        }
+                        openRoom(room);
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+}
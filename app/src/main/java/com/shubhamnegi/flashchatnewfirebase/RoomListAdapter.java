@@ -0,0 +1,105 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.app.Activity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    One row per room: its name, its newest message and how many of its messages the user hasn't read yet.
+    Everything comes from the rooms' summaries, see RoomDirectory, and the authors' names from the ProfileCache.
+ */
+class RoomListAdapter extends RecyclerView.Adapter<RoomListAdapter.ViewHolder> {
+
+    interface OnRoomClickListener {
+        void onRoomClick(RoomSummary room);
+    }
+
+    private final Activity mActivity;
+    private final OnRoomClickListener mClickListener;
+    private final List<RoomSummary> mRooms = new ArrayList<>();
+    private final ProfileCache mProfiles;
+
+    private final ProfileCache.Listener mProfileListener = new ProfileCache.Listener() {
+        @Override
+        public void onProfileChanged(String uid) {
+            notifyDataSetChanged();
+        }
+    };
+
+    // Names are the same in every room, any room's transport can look them up
+    RoomListAdapter(Activity activity, ChatTransport transport, OnRoomClickListener clickListener) {
+        mActivity = activity;
+        mClickListener = clickListener;
+        mProfiles = ProfileCache.getInstance(transport);
+        mProfiles.addListener(mProfileListener);
+    }
+
+    void cleanup() {
+        mProfiles.removeListener(mProfileListener);
+    }
+
+    // A handful of rows that change a few times a second at most, so they're simply all rebound
+    void setRooms(List<RoomSummary> rooms) {
+        mRooms.clear();
+        mRooms.addAll(rooms);
+        notifyDataSetChanged();
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView name;
+        final TextView lastMessage;
+        final TextView unread;
+        RoomSummary room;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            name = (TextView) itemView.findViewById(R.id.room_name);
+            lastMessage = (TextView) itemView.findViewById(R.id.room_last_message);
+            unread = (TextView) itemView.findViewById(R.id.room_unread);
+        }
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View row = LayoutInflater.from(mActivity).inflate(R.layout.room_row, parent, false);
+        final ViewHolder holder = new ViewHolder(row);
+        row.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (holder.room != null) mClickListener.onRoomClick(holder.room);
+            }
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        RoomSummary room = mRooms.get(position);
+        holder.room = room;
+        holder.name.setText(mActivity.getString(R.string.room_title, room.getRoom()));
+        if (room.getLastMessage() == null) {
+            holder.lastMessage.setText(R.string.room_no_messages);
+        } else {
+            String author = room.getLastUid() == null ? null : mProfiles.getName(room.getLastUid());
+            holder.lastMessage.setText(author == null ? room.getLastMessage() : author + ": " + room.getLastMessage());
+        }
+
+        long unread = room.unreadSince(ChatRooms.getSeenCount(mActivity, room.getRoom()));
+        holder.unread.setVisibility(unread > 0 ? View.VISIBLE : View.GONE);
+        holder.unread.setText(unread > 99 ? "99+" : String.valueOf(unread));
+    }
+
+    @Override
+    public int getItemCount() {
+        return mRooms.size();
+    }
+}
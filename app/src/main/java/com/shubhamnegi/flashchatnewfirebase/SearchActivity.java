@@ -0,0 +1,106 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.View;
+import android.widget.EditText;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Searches the open room's messages while the user types, see MessageSearch.
+    Every keystroke starts a search in the background. A search that's still waiting when the next key is typed is skipped,
+    and only the newest query's results are shown.
+
+    Picking a result goes back to the chat with the message's key and time (EXTRA_KEY, EXTRA_TIME),
+    which jumps to it. Opened from the search button next to the room name.
+ */
+public class SearchActivity extends AppCompatActivity {
+
+    static final String EXTRA_KEY = "com.shubhamnegi.flashchatnewfirebase.SEARCH_KEY";
+    static final String EXTRA_TIME = "com.shubhamnegi.flashchatnewfirebase.SEARCH_TIME";
+
+    private MessageSearch mSearch;
+    private SearchResultAdapter mAdapter;
+    private TextView mEmptyText;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_search);
+
+        // The chat's repository, started from the MainChatActivity that opened us
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        ChatRepository repository = ChatRepository.getInstance(this, user.getUid(), user.getDisplayName());
+        mSearch = repository.getSearch();
+
+        mEmptyText = (TextView) findViewById(R.id.search_empty);
+        RecyclerView results = (RecyclerView) findViewById(R.id.search_results);
+        results.setLayoutManager(new LinearLayoutManager(this));
+        mAdapter = new SearchResultAdapter(this, repository, new SearchResultAdapter.OnHitClickListener() {
+            @Override
+            public void onHitClick(SearchIndex.Hit hit) {
+                Intent data = new Intent();
+                data.putExtra(EXTRA_KEY, hit.key);
+                data.putExtra(EXTRA_TIME, hit.time);
+                setResult(RESULT_OK, data);
+                finish();
+            }
+        });
+        results.setAdapter(mAdapter);
+
+        EditText input = (EditText) findViewById(R.id.search_input);
+        input.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                search(s.toString());
+            }
+        });
+    }
+
+    private void search(String query) {
+        if (query.trim().isEmpty()) {
+            mSearch.cancel();
+            showHits(query, Collections.<SearchIndex.Hit>emptyList());
+            return;
+        }
+        mSearch.search(query, new MessageSearch.Callback() {
+            @Override
+            public void onResults(String query, List<SearchIndex.Hit> hits) {
+                showHits(query, hits);
+            }
+        });
+    }
+
+    private void showHits(String query, List<SearchIndex.Hit> hits) {
+        mAdapter.setHits(hits);
+        mEmptyText.setVisibility(hits.isEmpty() && !query.trim().isEmpty() ? View.VISIBLE : View.GONE);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Results still on their way have nowhere to go
+        mSearch.cancel();
+        mAdapter.cleanup();
+    }
+}
@@ -0,0 +1,142 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.app.Activity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+    One row per search hit, newest first: who wrote it and when, and the message.
+    A hit is only a push key and a time, the messages of the hits are loaded through the ChatRepository when they're set
+    and their rows are rebound as they arrive. Names come from the ProfileCache.
+ */
+class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapter.ViewHolder> {
+
+    interface OnHitClickListener {
+        void onHitClick(SearchIndex.Hit hit);
+    }
+
+    private final Activity mActivity;
+    private final OnHitClickListener mClickListener;
+    private final List<SearchIndex.Hit> mHits = new ArrayList<>();
+    private final ProfileCache mProfiles;
+    private final ChatRepository mRepository;
+    // The loaded messages of the hits, by push key, and the keys still being loaded. Only the current hits are kept.
+    private final Map<String, InstantMessage> mMessages = new HashMap<>();
+    private final Set<String> mLoading = new HashSet<>();
+    private boolean mCleanedUp;
+    private final DateFormat mDateFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT);
+
+    private final ProfileCache.Listener mProfileListener = new ProfileCache.Listener() {
+        @Override
+        public void onProfileChanged(String uid) {
+            notifyDataSetChanged();
+        }
+    };
+
+    private final ChatRepository.MessageLoadCallback mLoadCallback = new ChatRepository.MessageLoadCallback() {
+        @Override
+        public void onMessageLoaded(String key, InstantMessage message) {
+            // Dropped if the hit was replaced by newer results in the meantime
+            if (mCleanedUp || !mLoading.remove(key)) return;
+            mMessages.put(key, message);
+            for (int i = 0; i < mHits.size(); i++) {
+                if (mHits.get(i).key.equals(key)) notifyItemChanged(i);
+            }
+        }
+    };
+
+    // Messages are loaded and names looked up through the chat's repository
+    SearchResultAdapter(Activity activity, ChatRepository repository, OnHitClickListener clickListener) {
+        mActivity = activity;
+        mClickListener = clickListener;
+        mRepository = repository;
+        mProfiles = ProfileCache.getInstance(repository.getTransport());
+        mProfiles.addListener(mProfileListener);
+    }
+
+    void cleanup() {
+        mCleanedUp = true;
+        mProfiles.removeListener(mProfileListener);
+    }
+
+    // MessageSearch.MAX_RESULTS rows at most, so they're simply all rebound
+    void setHits(List<SearchIndex.Hit> hits) {
+        mHits.clear();
+        mHits.addAll(hits);
+
+        Set<String> keys = new HashSet<>();
+        List<String> missing = new ArrayList<>();
+        for (SearchIndex.Hit hit : hits) {
+            keys.add(hit.key);
+            if (!mMessages.containsKey(hit.key) && !mLoading.contains(hit.key)) missing.add(hit.key);
+        }
+        mMessages.keySet().retainAll(keys);
+        mLoading.retainAll(keys);
+        mLoading.addAll(missing);
+        notifyDataSetChanged();
+
+        if (!missing.isEmpty()) mRepository.loadMessages(missing, mLoadCallback);
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView author;
+        final TextView message;
+        SearchIndex.Hit hit;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            author = (TextView) itemView.findViewById(R.id.search_author);
+            message = (TextView) itemView.findViewById(R.id.search_message);
+        }
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View row = LayoutInflater.from(mActivity).inflate(R.layout.search_row, parent, false);
+        final ViewHolder holder = new ViewHolder(row);
+        row.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (holder.hit != null) mClickListener.onHitClick(holder.hit);
+            }
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        SearchIndex.Hit hit = mHits.get(position);
+        holder.hit = hit;
+        // Null while it's being loaded, or if it couldn't be
+        InstantMessage message = mMessages.get(hit.key);
+        String author = null;
+        if (message != null) {
+            // Messages from before uids carry the name itself
+            String uid = message.getUid();
+            author = uid == null ? message.getAuthor() : mProfiles.getName(uid);
+        }
+        String time = mDateFormat.format(new Date(hit.time));
+        holder.author.setText(author == null ? time : mActivity.getString(R.string.search_hit_author, author, time));
+        holder.message.setText(message == null ? null : message.getMessage());
+    }
+
+    @Override
+    public int getItemCount() {
+        return mHits.size();
+    }
+}
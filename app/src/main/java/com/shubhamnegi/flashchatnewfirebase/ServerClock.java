@@ -0,0 +1,38 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+/*
+    Estimates the server's clock from the device clock.
+
+    The ChatTransport reports how far the device clock is off, for Firebase that's /.info/serverTimeOffset. Timestamps taken
+    with now() on two different phones can be compared with each other, which is what the end-to-end latency of a message needs:
+    the sender stores now() in the message, the receiver subtracts it from its own now().
+
+    Clock skew --> https://firebase.google.com/docs/database/android/offline-capabilities#clock-skew
+ */
+class ServerClock {
+
+    private final ChatTransport.Subscription mSubscription;
+    private volatile long mOffsetMillis;
+
+    ServerClock(ChatTransport transport) {
+        mSubscription = transport.subscribeServerTimeOffset(new ChatTransport.OffsetListener() {
+            @Override
+            public void onServerTimeOffset(long offsetMillis) {
+                mOffsetMillis = offsetMillis;
+            }
+        });
+    }
+
+    // Milliseconds since the epoch on the server's clock
+    long now() {
+        return System.currentTimeMillis() + mOffsetMillis;
+    }
+
+    long getOffsetMillis() {
+        return mOffsetMillis;
+    }
+
+    void release() {
+        mSubscription.cancel();
+    }
+}
@@ -0,0 +1,124 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.os.TraceCompat;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Times the way from a cold start to the first message on screen: LoginActivity --> sign in --> MainChatActivity --> first message.
+
+    Every phase is wrapped in begin()/end(), which also opens a trace section, so the same phases show up in a
+    system trace (Android Studio's profiler or Perfetto). Milestones without a duration, like the first frame, are mark()ed.
+    Sections may nest, the report indents them.
+
+    Only the first way to the chat is recorded: once the "first-message" milestone is marked the report is logged,
+    and later begin()/end() calls only open trace sections. Every later opening of the chat is still timed by
+    the "first-message" histogram of ChatMetrics.
+
+    Times are milliseconds since the process started (API 24+) or since this class was first used.
+
+    Tracing --> https://developer.android.com/topic/performance/tracing
+ */
+class StartupTrace {
+
+    static final String FIRST_FRAME = "first-frame";
+    static final String FIRST_MESSAGE = "first-message";
+
+    private static final StartupTrace sInstance = new StartupTrace();
+
+    private final long mOriginMillis;
+    private final List<Entry> mEntries = new ArrayList<>();
+    // Indices into mEntries of the sections that are still open, innermost last
+    private final List<Integer> mOpen = new ArrayList<>();
+    private boolean mFinished;
+
+    private static class Entry {
+        final String name;
+        final int depth;
+        final long startMillis;
+        final boolean mark;
+        // -1 for marks and for sections that are still open
+        long durationMillis = -1;
+
+        Entry(String name, int depth, long startMillis, boolean mark) {
+            this.name = name;
+            this.depth = depth;
+            this.startMillis = startMillis;
+            this.mark = mark;
+        }
+    }
+
+    private StartupTrace() {
+        mOriginMillis = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? Process.getStartElapsedRealtime()
+                : SystemClock.elapsedRealtime();
+    }
+
+    // Only used on the main thread
+    static StartupTrace get() {
+        return sInstance;
+    }
+
+    void begin(String section) {
+        TraceCompat.beginSection(section);
+        if (mFinished) return;
+        mOpen.add(mEntries.size());
+        mEntries.add(new Entry(section, mOpen.size() - 1, now(), false));
+    }
+
+    // Ends the innermost open section
+    void end() {
+        TraceCompat.endSection();
+        if (mFinished || mOpen.isEmpty()) return;
+        Entry entry = mEntries.get(mOpen.remove(mOpen.size() - 1));
+        entry.durationMillis = now() - entry.startMillis;
+    }
+
+    void mark(String milestone) {
+        if (mFinished) return;
+        mEntries.add(new Entry(milestone, mOpen.size(), now(), true));
+        if (FIRST_MESSAGE.equals(milestone)) {
+            mFinished = true;
+            Log.d("FlashChat", report());
+        }
+    }
+
+    // Milliseconds since the start of the trace
+    long now() {
+        return SystemClock.elapsedRealtime() - mOriginMillis;
+    }
+
+    boolean isFinished() {
+        return mFinished;
+    }
+
+    void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Startup (ms since process start):");
+        for (Entry entry : mEntries) {
+            StringBuilder line = new StringBuilder(prefix).append("  ");
+            for (int i = 0; i < entry.depth; i++) {
+                line.append("  ");
+            }
+            line.append(entry.name).append(" @").append(entry.startMillis);
+            // Milestones have no duration
+            if (!entry.mark) line.append(entry.durationMillis < 0 ? " (running)" : " took " + entry.durationMillis);
+            writer.println(line);
+        }
+    }
+
+    String report() {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        dump("", writer);
+        writer.flush();
+        return out.toString();
+    }
+}
@@ -0,0 +1,283 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.app.Activity;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/*
+    Drives the chat list through a scripted fling, without a device, and counts what binding the rows cost:
+      - bytes allocated per bind, on the test thread (com.sun.management.ThreadMXBean)
+      - findViewById() calls per bind and per inflated row (ShadowCountingView)
+      - rows inflated, i.e. onCreateViewHolder() calls, while flinging
+      - binds that requested a new layout (the same check as the BindCostTracker) and layout passes of the list
+
+    The list is a real ChatListAdapter on a ChatRepository with a LoopbackTransport, so whatever binding does in the app
+    (the MessageWindow, the MessageTextCache, the BindCostTracker) is counted as well. The history is put into the
+    MessageStore directly and the repository is never started, so nothing arrives while the list is flung.
+    The authors' names are asked for through the same transport, and their answers wait on the main looper like the rest:
+    every row is bound with an empty name, the same in every run.
+    Payloads are passed through, so a partial bind (e.g. only the author of a row) is measured as the partial bind it is.
+
+    The fling is the same every run: a frame every FRAME_MILLIS that scrolls by what a fling of FLING_VELOCITY has left,
+    slowing down by FLING_FRICTION per frame, from the newest message up to the oldest and back down once.
+    The list is laid out after every frame that asked for it, like the Choreographer would.
+ */
+class BindHarness {
+
+    static final String MY_UID = "harness-me";
+
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1280;
+
+    private static final int FRAME_MILLIS = 16;
+    private static final int FLING_VELOCITY = 8000;
+    private static final float FLING_FRICTION = 0.96f;
+    private static final int MIN_VELOCITY = 50;
+    // Flings up, in case the list never reaches the top (e.g. rows that are far taller than expected)
+    private static final int MAX_FLINGS = 500;
+
+    private static final String[] WORDS = {
+            "hey", "how", "are", "you", "doing", "today", "did", "see", "the", "game", "last", "night", "meeting",
+            "moved", "to", "three", "lunch", "anyone", "coffee", "deploy", "is", "done", "thanks", "great", "ok",
+            "sounds", "good", "let's", "talk", "tomorrow", "\ud83d\ude00", "caf\u00e9", "\u00fcber"};
+
+    // What one fling over one history cost
+    static class Result {
+        long binds;
+        long inflates;
+        long findViewByIdInBind;
+        long findViewByIdInInflate;
+        long relayoutBinds;
+        long layoutPasses;
+        long allocatedBytes;
+
+        double allocatedBytesPerBind() {
+            return binds == 0 ? 0 : (double) allocatedBytes / binds;
+        }
+
+        double findViewByIdPerBind() {
+            return binds == 0 ? 0 : (double) findViewByIdInBind / binds;
+        }
+
+        double findViewByIdPerInflate() {
+            return inflates == 0 ? 0 : (double) findViewByIdInInflate / inflates;
+        }
+
+        double relayoutsPerBind() {
+            return binds == 0 ? 0 : (double) relayoutBinds / binds;
+        }
+
+        // The numbers the baseline holds, with the scenario's name in front of every key
+        void putInto(Properties properties, String scenario) {
+            properties.setProperty(scenario + ".allocatedBytesPerBind", String.valueOf(Math.round(allocatedBytesPerBind())));
+            properties.setProperty(scenario + ".findViewByIdPerBind", String.valueOf(findViewByIdPerBind()));
+            properties.setProperty(scenario + ".findViewByIdPerInflate", String.valueOf(findViewByIdPerInflate()));
+            properties.setProperty(scenario + ".inflates", String.valueOf(inflates));
+            properties.setProperty(scenario + ".relayoutsPerBind", String.valueOf(relayoutsPerBind()));
+            properties.setProperty(scenario + ".layoutPasses", String.valueOf(layoutPasses));
+        }
+
+        @Override
+        public String toString() {
+            return "binds=" + binds
+                    + ", inflates=" + inflates
+                    + ", bytes/bind=" + Math.round(allocatedBytesPerBind())
+                    + ", findViewById/bind=" + findViewByIdPerBind()
+                    + ", findViewById/inflate=" + findViewByIdPerInflate()
+                    + ", relayouts/bind=" + relayoutsPerBind()
+                    + ", layoutPasses=" + layoutPasses;
+        }
+    }
+
+    /*
+        A synthetic history, the same for the same seed: count messages of authors different people plus our own,
+        each of 1 to maxWords words, a minute apart. Every author has a uid, like the messages the app sends now.
+     */
+    static List<ChatEvent> history(long seed, int count, int authors, int maxWords) {
+        Random random = new Random(seed);
+        PushKeyGenerator keys = new PushKeyGenerator(new Random(seed));
+        long time = 1600000000000L;
+        List<ChatEvent> events = new ArrayList<>(count);
+        String previousKey = null;
+        for (int i = 0; i < count; i++) {
+            time += 60 * 1000;
+            int author = random.nextInt(authors + 1);
+            String uid = author == authors ? MY_UID : "harness-user-" + author;
+
+            StringBuilder text = new StringBuilder();
+            int words = 1 + random.nextInt(maxWords);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) text.append(' ');
+                text.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+
+            String key = keys.next(time);
+            InstantMessage message = new InstantMessage(text.toString(), null, uid, time, time);
+            events.add(ChatEvent.fromCache(key, previousKey, message));
+            previousKey = key;
+        }
+        return events;
+    }
+
+    private final Activity mActivity;
+    private final Result mResult = new Result();
+    private boolean mCounting;
+
+    BindHarness(Activity activity) {
+        mActivity = activity;
+    }
+
+    // Shows the history in a new list in its own room, flings it and returns what the binds of the fling cost
+    Result fling(String room, List<ChatEvent> history) {
+        ChatRepository repository = ChatRepository.getInstance(mActivity, LoopbackTransport.getInstance(), room, MY_UID, "Me");
+        repository.getStore().apply(history);
+
+        RecyclerView list = new RecyclerView(mActivity);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(mActivity);
+        layoutManager.setStackFromEnd(true);
+        list.setLayoutManager(layoutManager);
+        ChatListAdapter adapter = new ChatListAdapter(mActivity, repository);
+        adapter.attachTo(list);
+        list.setAdapter(new MeasuringAdapter(adapter));
+
+        // The first screen is inflated and bound before the fling, it isn't counted
+        layout(list);
+        mCounting = true;
+        for (int i = 0; i < MAX_FLINGS && layoutManager.findFirstVisibleItemPosition() > 0; i++) {
+            fling(list, -1);
+        }
+        fling(list, 1);
+        mCounting = false;
+
+        adapter.cleanup();
+        return mResult;
+    }
+
+    // One fling, direction -1 scrolls towards older messages
+    private void fling(RecyclerView list, int direction) {
+        float velocity = FLING_VELOCITY;
+        while (velocity > MIN_VELOCITY) {
+            list.scrollBy(0, direction * Math.round(velocity * FRAME_MILLIS / 1000f));
+            if (list.isLayoutRequested()) {
+                layout(list);
+                if (mCounting) mResult.layoutPasses++;
+            }
+            velocity *= FLING_FRICTION;
+        }
+    }
+
+    private static void layout(RecyclerView list) {
+        list.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        list.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    // Bytes allocated by this thread so far. HotSpot keeps the count, it's what the allocation profilers read too.
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /*
+        Hands everything on to the ChatListAdapter and counts around its onCreateViewHolder() and onBindViewHolder().
+        The ChatListAdapter tells itself about changes in the store, they're passed on so the list sees them.
+     */
+    private class MeasuringAdapter extends RecyclerView.Adapter<ChatListAdapter.ViewHolder> {
+
+        private final ChatListAdapter mAdapter;
+
+        MeasuringAdapter(ChatListAdapter adapter) {
+            mAdapter = adapter;
+            setHasStableIds(adapter.hasStableIds());
+            adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    notifyDataSetChanged();
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount) {
+                    notifyItemRangeChanged(positionStart, itemCount);
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+                    notifyItemRangeChanged(positionStart, itemCount, payload);
+                }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    notifyItemRangeInserted(positionStart, itemCount);
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    notifyItemRangeRemoved(positionStart, itemCount);
+                }
+
+                @Override
+                public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                    notifyItemMoved(fromPosition, toPosition);
+                }
+            });
+        }
+
+        @NonNull
+        @Override
+        public ChatListAdapter.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            long finds = ShadowCountingView.sFindViewByIdCount;
+            ChatListAdapter.ViewHolder holder = mAdapter.onCreateViewHolder(parent, viewType);
+            if (mCounting) {
+                mResult.inflates++;
+                mResult.findViewByIdInInflate += ShadowCountingView.sFindViewByIdCount - finds;
+            }
+            return holder;
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ChatListAdapter.ViewHolder holder, int position) {
+            onBindViewHolder(holder, position, Collections.emptyList());
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ChatListAdapter.ViewHolder holder, int position, @NonNull List<Object> payloads) {
+            boolean layoutRequestedBefore = holder.itemView.isLayoutRequested();
+            long finds = ShadowCountingView.sFindViewByIdCount;
+            long bytes = allocatedBytes();
+            mAdapter.onBindViewHolder(holder, position, payloads);
+            long allocated = allocatedBytes() - bytes;
+            if (!mCounting) return;
+
+            mResult.binds++;
+            mResult.allocatedBytes += allocated;
+            mResult.findViewByIdInBind += ShadowCountingView.sFindViewByIdCount - finds;
+            if (!layoutRequestedBefore && holder.itemView.isLayoutRequested()) mResult.relayoutBinds++;
+        }
+
+        @Override
+        public int getItemCount() {
+            return mAdapter.getItemCount();
+        }
+
+        @Override
+        public int getItemViewType(int position) {
+            return mAdapter.getItemViewType(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mAdapter.getItemId(position);
+        }
+    }
+}
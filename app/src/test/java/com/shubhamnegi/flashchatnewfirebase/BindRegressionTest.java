@@ -0,0 +1,147 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.app.Activity;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+/*
+    Flings the chat list over synthetic histories (see BindHarness) and fails when binding got more expensive than
+    the baseline in src/test/resources/bind-baseline.properties says, by more than the slack below.
+
+    After a change that makes binding cheaper, or one that's meant to cost more, record the baseline again and check it in:
+        ./gradlew :app:testDebugUnitTest --tests '*BindRegressionTest' -PupdateBindBaseline
+    A number that isn't in the baseline counts as a regression too, so a new metric can't go unchecked: record it.
+    Only while nothing at all was recorded yet, e.g. in a fresh checkout of the baseline, is the test skipped.
+
+    Robolectric --> http://robolectric.org
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, shadows = {ShadowCountingView.class})
+public class BindRegressionTest {
+
+    // Allocations move a little with the JDK and with what the background text measuring has finished
+    private static final double ALLOCATION_SLACK = 0.10;
+    private static final double ALLOCATION_SLACK_BYTES = 64;
+    private static final double RELAYOUT_SLACK = 0.02;
+    private static final double LAYOUT_PASS_SLACK = 0.10;
+    private static final long INFLATE_SLACK = 2;
+
+    private Activity mActivity;
+
+    @Before
+    public void setUp() {
+        mActivity = Robolectric.buildActivity(Activity.class).setup().get();
+        mActivity.setTheme(R.style.AppTheme);
+    }
+
+    @Test
+    public void shortMessagesFewAuthors() throws IOException {
+        check("short", BindHarness.history(1, 1200, 3, 6));
+    }
+
+    @Test
+    public void longMessagesManyAuthors() throws IOException {
+        check("long", BindHarness.history(2, 1200, 20, 40));
+    }
+
+    private void check(String scenario, List<ChatEvent> history) throws IOException {
+        BindHarness.Result result = new BindHarness(mActivity).fling("bind-harness-" + scenario, history);
+        assertTrue("Nothing was bound, the fling didn't scroll the list", result.binds > 0);
+
+        Properties measured = new Properties();
+        result.putInto(measured, scenario);
+        File file = baselineFile();
+        Properties baseline = readBaseline(file);
+
+        if (Boolean.getBoolean("bindBaseline.update")) {
+            baseline.putAll(measured);
+            writeBaseline(file, baseline);
+            return;
+        }
+
+        // Skipped rather than failed, there's nothing to compare against until the first recording
+        assumeFalse("No bind baseline recorded in " + file + " yet, record it with -PupdateBindBaseline", baseline.isEmpty());
+
+        StringBuilder regressions = new StringBuilder();
+        checkAtMost(regressions, baseline, scenario + ".allocatedBytesPerBind", result.allocatedBytesPerBind(),
+                ALLOCATION_SLACK, ALLOCATION_SLACK_BYTES);
+        checkAtMost(regressions, baseline, scenario + ".findViewByIdPerBind", result.findViewByIdPerBind(), 0, 0);
+        checkAtMost(regressions, baseline, scenario + ".findViewByIdPerInflate", result.findViewByIdPerInflate(), 0, 0);
+        checkAtMost(regressions, baseline, scenario + ".inflates", result.inflates, 0, INFLATE_SLACK);
+        checkAtMost(regressions, baseline, scenario + ".relayoutsPerBind", result.relayoutsPerBind(), 0, RELAYOUT_SLACK);
+        checkAtMost(regressions, baseline, scenario + ".layoutPasses", result.layoutPasses, LAYOUT_PASS_SLACK, 2);
+        assertTrue("Binding regressed past " + file + ", measured " + result + ":" + regressions, regressions.length() == 0);
+    }
+
+    // Adds a line to regressions if value is more than the baseline plus the relative and the absolute slack, or if there's no baseline
+    private static void checkAtMost(StringBuilder regressions, Properties baseline, String key, double value,
+                                    double relativeSlack, double absoluteSlack) {
+        String recorded = baseline.getProperty(key);
+        if (recorded == null) {
+            regressions.append("\n  ").append(key).append(": ").append(value)
+                    .append(", no baseline, record it with -PupdateBindBaseline");
+            return;
+        }
+        double limit = Double.parseDouble(recorded) * (1 + relativeSlack) + absoluteSlack;
+        if (value > limit) {
+            regressions.append("\n  ").append(key).append(": ").append(value)
+                    .append(", baseline ").append(recorded).append(", limit ").append(limit);
+        }
+    }
+
+    // Set by app/build.gradle, so a recording goes to the source tree and not to the build directory
+    private static File baselineFile() {
+        String path = System.getProperty("bindBaseline.file");
+        return new File(path != null ? path : "src/test/resources/bind-baseline.properties");
+    }
+
+    private static Properties readBaseline(File file) throws IOException {
+        Properties baseline = new Properties();
+        if (!file.exists()) return baseline;
+        InputStream in = new FileInputStream(file);
+        try {
+            baseline.load(in);
+        } finally {
+            in.close();
+        }
+        return baseline;
+    }
+
+    // Sorted and without the date Properties.store() writes, so a recording only changes the lines that changed
+    private static void writeBaseline(File file, Properties baseline) throws IOException {
+        Map<String, String> sorted = new TreeMap<>();
+        for (String key : baseline.stringPropertyNames()) {
+            sorted.put(key, baseline.getProperty(key));
+        }
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write("# What binding a row costs while the chat list is flung, see BindRegressionTest.\n");
+            out.write("# Recorded with: ./gradlew :app:testDebugUnitTest --tests '*BindRegressionTest' -PupdateBindBaseline\n");
+            for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                out.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
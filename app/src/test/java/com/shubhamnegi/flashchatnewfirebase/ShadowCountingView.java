@@ -0,0 +1,40 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import android.view.View;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.annotation.RealObject;
+import org.robolectric.shadows.ShadowView;
+import org.robolectric.util.reflector.Direct;
+import org.robolectric.util.reflector.ForType;
+
+import static org.robolectric.util.reflector.Reflector.reflector;
+
+/*
+    Counts findViewById() calls on any view, for the BindHarness. The lookup itself is still the real one.
+    Only the test thread touches views, so a plain counter is enough.
+
+    Shadows --> http://robolectric.org/extending/
+ */
+@Implements(View.class)
+public class ShadowCountingView extends ShadowView {
+
+    static long sFindViewByIdCount;
+
+    @RealObject
+    private View mView;
+
+    @Implementation
+    protected <T extends View> T findViewById(int id) {
+        sFindViewByIdCount++;
+        return reflector(ViewReflector.class, mView).findViewById(id);
+    }
+
+    @ForType(View.class)
+    interface ViewReflector {
+
+        @Direct
+        <T extends View> T findViewById(int id);
+    }
+}
@@ -0,0 +1,58 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic chat content for the benchmarks: push-key-like keys in chat order, a few authors (by uid) and bodies of typical length.
+ */
+final class ChatFixtures {
+
+    private static final int AUTHORS = 25;
+    private static final String WORDS = "hey did you see the game last night it was great I think we should meet up later today ok sure";
+
+    private ChatFixtures() {
+    }
+
+    // 20 characters like a push key, sorting in the order of i
+    static String key(long i) {
+        String digits = Long.toString(i, 36);
+        StringBuilder key = new StringBuilder("-M");
+        for (int pad = digits.length(); pad < 18; pad++) {
+            key.append('0');
+        }
+        return key.append(digits).toString();
+    }
+
+    // 28 characters like a Firebase Auth uid
+    static String uid(int i) {
+        return "uid" + (i % AUTHORS) + "xxxxxxxxxxxxxxxxxxxxxxxxxxxxxx".substring(0, 25 - String.valueOf(i % AUTHORS).length());
+    }
+
+    // Between 5 and 100 characters, most chat messages are short
+    static String body(Random random) {
+        int length = 5 + (int) Math.min(95, Math.abs(random.nextGaussian()) * 40);
+        int position = random.nextInt(WORDS.length());
+        StringBuilder body = new StringBuilder(length);
+        while (body.length() < length) {
+            body.append(WORDS.charAt(position));
+            position = (position + 1) % WORDS.length();
+        }
+        return body.toString();
+    }
+
+    static InstantMessage message(Random random) {
+        return InstantMessage.fromUser(uid(random.nextInt(AUTHORS)), body(random), null);
+    }
+
+    // What snapshot.getValue() returns for a message: a map of the JSON fields
+    static Map<String, Object> value(Random random, long sentAt) {
+        Map<String, Object> value = new HashMap<>();
+        value.put("message", body(random));
+        value.put("uid", uid(random.nextInt(AUTHORS)));
+        value.put("sentAt", sentAt);
+        value.put("timestamp", sentAt + 120);
+        return value;
+    }
+}
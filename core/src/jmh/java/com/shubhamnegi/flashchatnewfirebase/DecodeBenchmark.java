@@ -0,0 +1,73 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What it costs to turn a message's JSON value into an InstantMessage, and to read a row's body back out of the MessageStore.
+ *
+ * reflectiveDecode is a stand-in for snapshot.getValue(InstantMessage.class), which finds and sets every field
+ * through reflection. The real Firebase mapper does more work (bean property lookup, type conversion), so it's a lower bound.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DecodeBenchmark {
+
+    private static final int VALUES = 1024;
+
+    private Map<String, Object>[] mValues;
+    private MessageStore mStore;
+    private int mNext;
+
+    @SuppressWarnings("unchecked")
+    @Setup(Level.Trial)
+    public void createValues() {
+        Random random = new Random(42);
+        mValues = new Map[VALUES];
+        mStore = new MessageStore(ChatFixtures.uid(0), null);
+        for (int i = 0; i < VALUES; i++) {
+            mValues[i] = ChatFixtures.value(random, 1_600_000_000_000L + i);
+            mStore.add(ChatFixtures.key(i), null, InstantMessage.fromValue(mValues[i]));
+        }
+    }
+
+    @Benchmark
+    public InstantMessage fromValue() {
+        return InstantMessage.fromValue(mValues[next()]);
+    }
+
+    @Benchmark
+    public InstantMessage reflectiveDecode() throws Exception {
+        Map<String, Object> value = mValues[next()];
+        InstantMessage message = InstantMessage.class.getConstructor().newInstance();
+        for (Map.Entry<String, Object> entry : value.entrySet()) {
+            Field field = InstantMessage.class.getDeclaredField(entry.getKey());
+            field.setAccessible(true);
+            field.set(message, entry.getValue());
+        }
+        return message;
+    }
+
+    // Every bind decodes the UTF-8 bytes the store keeps the body in
+    @Benchmark
+    public String storeGetBody() {
+        return mStore.getBody(next());
+    }
+
+    private int next() {
+        mNext = (mNext + 1) & (VALUES - 1);
+        return mNext;
+    }
+}
@@ -0,0 +1,108 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap kept alive by a MessageStore of size messages, reported as the bytesPerMessage counter next to the time it took to fill.
+ * fillSnapshotList is the baseline: one snapshot per message, the way ChatListAdapter used to keep an ArrayList<DataSnapshot>.
+ *
+ * A real DataSnapshot can't be created without a Firebase app, so the baseline keeps what a snapshot holds at the very least:
+ * its push key, a reference object and a JSON tree with a map per message and its own copy of every string.
+ * The real snapshot (IndexedNode, ChildrenNode, LeafNodes with priorities) is heavier, so the savings shown are a lower bound.
+ *
+ * The heap is measured with Runtime after forcing a GC before and after filling, so the numbers are approximate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class FootprintBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private String[] mKeys;
+    private InstantMessage[] mMessages;
+
+    // What a DataSnapshot of a message keeps alive, at the very least
+    private static class SnapshotLike {
+        final String key;
+        final String[] refPath;
+        final HashMap<String, Object> value;
+
+        SnapshotLike(String key, HashMap<String, Object> value) {
+            this.key = key;
+            this.refPath = new String[]{"messages", key};
+            this.value = value;
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long bytesPerMessage;
+    }
+
+    @Setup(Level.Trial)
+    public void createMessages() {
+        Random random = new Random(42);
+        mKeys = new String[size];
+        mMessages = new InstantMessage[size];
+        for (int i = 0; i < size; i++) {
+            mKeys[i] = ChatFixtures.key(i);
+            mMessages[i] = ChatFixtures.message(random);
+        }
+    }
+
+    @Benchmark
+    public MessageStore fillStore(Footprint footprint) {
+        long before = usedHeap();
+        MessageStore store = new MessageStore(ChatFixtures.uid(0), null);
+        for (int i = 0; i < size; i++) {
+            store.add(mKeys[i], i == 0 ? null : mKeys[i - 1], mMessages[i]);
+        }
+        // The keys are shared with the fixtures and would be kept by Firebase anyway, the rest is the store's own
+        footprint.bytesPerMessage = (usedHeap() - before) / size;
+        return store;
+    }
+
+    @Benchmark
+    public ArrayList<SnapshotLike> fillSnapshotList(Footprint footprint) {
+        long before = usedHeap();
+        ArrayList<SnapshotLike> snapshots = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            HashMap<String, Object> value = new HashMap<>();
+            // Every snapshot parses its own copy of the strings out of the JSON
+            value.put("uid", new String(mMessages[i].getUid().toCharArray()));
+            value.put("message", new String(mMessages[i].getMessage().toCharArray()));
+            snapshots.add(new SnapshotLike(mKeys[i], value));
+        }
+        footprint.bytesPerMessage = (usedHeap() - before) / size;
+        return snapshots;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
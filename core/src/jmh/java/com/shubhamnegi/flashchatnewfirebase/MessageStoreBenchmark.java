@@ -0,0 +1,97 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the listener events applied to a MessageStore that already holds size messages.
+ *
+ * Every benchmark leaves the store as big as it found it, so the numbers of all iterations are comparable:
+ * an insert is paired with the remove of the same message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MessageStoreBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private MessageStore mStore;
+    private String[] mKeys;
+    private InstantMessage[] mMessages;
+    private InstantMessage mEdited;
+    private List<ChatEvent> mBatch;
+    private Random mRandom;
+    private long mNextKey;
+
+    @Setup(Level.Trial)
+    public void fillStore() {
+        mRandom = new Random(42);
+        mStore = new MessageStore(ChatFixtures.uid(0), null);
+        mKeys = new String[size];
+        mMessages = new InstantMessage[size];
+        for (int i = 0; i < size; i++) {
+            mKeys[i] = ChatFixtures.key(i);
+            mMessages[i] = ChatFixtures.message(mRandom);
+            mStore.add(mKeys[i], i == 0 ? null : mKeys[i - 1], mMessages[i]);
+        }
+        mEdited = InstantMessage.fromUser(ChatFixtures.uid(1), "edited", null);
+        mNextKey = size;
+
+        // A typical burst, one frame's worth of new messages at the bottom of the chat
+        mBatch = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            mBatch.add(ChatEvent.fromCache(ChatFixtures.key(size + 1_000_000 + i), null, ChatFixtures.message(mRandom)));
+        }
+    }
+
+    // A new message arriving at the bottom, the common case
+    @Benchmark
+    public int insertNewest() {
+        String key = ChatFixtures.key(mNextKey++);
+        mStore.add(key, mStore.getKey(mStore.size() - 1), mMessages[0]);
+        mStore.remove(key);
+        return mStore.size();
+    }
+
+    // An older page being merged in: every insert lands somewhere in the middle and moves the rows after it
+    @Benchmark
+    public int removeAndInsertRandom() {
+        int i = mRandom.nextInt(size);
+        mStore.remove(mKeys[i]);
+        mStore.add(mKeys[i], null, mMessages[i]);
+        return mStore.size();
+    }
+
+    // An edited message, looked up through the index and replaced in place
+    @Benchmark
+    public int changeRandom() {
+        int i = mRandom.nextInt(size);
+        mStore.change(mKeys[i], null, mEdited);
+        mStore.change(mKeys[i], null, mMessages[i]);
+        return mStore.size();
+    }
+
+    // One flush of the ChatUpdateBatcher
+    @Benchmark
+    public int applyBatchOf50() {
+        mStore.apply(mBatch);
+        for (ChatEvent event : mBatch) {
+            mStore.remove(event.key);
+        }
+        return mStore.size();
+    }
+}
@@ -0,0 +1,66 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a search costs in a SearchIndex of size messages, and what indexing one more message costs.
+ *
+ * The fixtures only use a couple of dozen words, so every word is in a good part of the messages.
+ * Real chats have far more distinct words and shorter postings, this is the slow end.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    private SearchIndex mIndex;
+    private Random mRandom;
+    private long mNextKey;
+
+    @Setup(Level.Trial)
+    public void fillIndex() {
+        mRandom = new Random(42);
+        mIndex = new SearchIndex();
+        for (int i = 0; i < size; i++) {
+            mIndex.add(ChatFixtures.key(i), ChatFixtures.message(mRandom));
+        }
+        mNextKey = size;
+    }
+
+    // A single short prefix, it expands to several words
+    @Benchmark
+    public List<SearchIndex.Hit> prefix() {
+        return mIndex.search("g", 50);
+    }
+
+    @Benchmark
+    public List<SearchIndex.Hit> twoWords() {
+        return mIndex.search("game tod", 50);
+    }
+
+    @Benchmark
+    public List<SearchIndex.Hit> noMatch() {
+        return mIndex.search("great xylophone", 50);
+    }
+
+    // The index grows by one message per call, like it does in the app
+    @Benchmark
+    public void add() {
+        mIndex.add(ChatFixtures.key(mNextKey++), ChatFixtures.message(mRandom));
+    }
+}
@@ -0,0 +1,49 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+/*
+    One ChildEventListener callback, kept so that it can be queued in the batcher and applied to the MessageStore later.
+    previousKey is the previousChildName Firebase passed along, which is the key of the message right before this one.
+
+    Events start out holding the raw value they were delivered with (a DataSnapshot in the app). MessageDecoder turns them
+    into decoded events that only hold the InstantMessage, so the raw value (and its JSON tree) can be garbage collected right away.
+    The raw value is an Object so that this class doesn't depend on Firebase and can be used on a plain JVM.
+ */
+public class ChatEvent {
+
+    public static final int ADDED = 0;
+    public static final int CHANGED = 1;
+    public static final int REMOVED = 2;
+    public static final int MOVED = 3;
+
+    public final int type;
+    public final String key;
+    public final String previousKey;
+    public final Object raw;
+    public final InstantMessage message;
+
+    public ChatEvent(int type, String key, String previousKey, Object raw) {
+        this(type, key, previousKey, raw, null);
+    }
+
+    private ChatEvent(int type, String key, String previousKey, Object raw, InstantMessage message) {
+        this.type = type;
+        this.key = key;
+        this.previousKey = previousKey;
+        this.raw = raw;
+        this.message = message;
+    }
+
+    // An already decoded message, e.g. read back from the MessageCache
+    public static ChatEvent fromCache(String key, String previousKey, InstantMessage message) {
+        return new ChatEvent(ADDED, key, previousKey, null, message);
+    }
+
+    // Only added and changed messages carry content that has to be decoded
+    public boolean needsDecoding() {
+        return type == ADDED || type == CHANGED;
+    }
+
+    public ChatEvent decoded(InstantMessage message) {
+        return new ChatEvent(type, key, previousKey, null, message);
+    }
+}
@@ -0,0 +1,141 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import java.util.Collections;
+import java.util.Map;
+
+/*
+    Firebase reads the getters through reflection when a message is written. Reading goes through fromValue(), which picks the
+    fields out of the JSON tree by hand, and after that a message never changes.
+    There are no setters on purpose: decoded messages are handed from the decoder thread to the main thread and shared by the adapter.
+
+    This class doesn't use any Firebase class, so that it can be benchmarked on a plain JVM (see the core module's jmh sources).
+
+    The author is the Firebase Auth uid of the sender. Display names are looked up from the uid (see ProfileCache in the app),
+    so a message doesn't carry a copy of the name and shows the new name after a rename.
+    Messages written before uids were used have the author's display name in "author" instead, and no uid.
+
+    Two timestamps travel with a message, both in milliseconds since the epoch:
+      - sentAt:    when the sender pressed send, on the sender's ServerClock (device clock corrected by Firebase's offset)
+      - timestamp: when the Firebase server stored it. We write SERVER_TIMESTAMP and the server replaces it with its time.
+    Messages written before these fields existed have neither.
+ */
+public class InstantMessage {
+
+    // The same placeholder as Firebase's ServerValue.TIMESTAMP: the server replaces it with its time when it stores the message
+    public static final Map<String, String> SERVER_TIMESTAMP = Collections.singletonMap(".sv", "timestamp");
+
+    private String message;
+    private String author;
+    private String uid;
+    private Long sentAt;
+    private Object timestamp;
+
+    public InstantMessage(String message, String author) {
+        this.message = message;
+        this.author = author;
+    }
+
+    // A new message, the server fills in its own timestamp when it stores it
+    public InstantMessage(String message, String author, Long sentAt) {
+        this(message, author);
+        this.sentAt = sentAt;
+        this.timestamp = SERVER_TIMESTAMP;
+    }
+
+    // A message as the server stored it, with its timestamp filled in. E.g. read back from the MessageCache.
+    public InstantMessage(String message, String author, Long sentAt, Long timestamp) {
+        this(message, author);
+        this.sentAt = sentAt;
+        this.timestamp = timestamp;
+    }
+
+    // A message as the server stored it, by the author's uid (or display name for old messages)
+    public InstantMessage(String message, String author, String uid, Long sentAt, Long timestamp) {
+        this(message, author, sentAt, timestamp);
+        this.uid = uid;
+    }
+
+    public InstantMessage() {
+
+
+    }
+
+    // A new message of the user with this uid, the server fills in its own timestamp when it stores it
+    public static InstantMessage fromUser(String uid, String message, Long sentAt) {
+        InstantMessage instantMessage = new InstantMessage(message, null, sentAt);
+        instantMessage.uid = uid;
+        return instantMessage;
+    }
+
+    /*
+        Builds a message from the value of its DataSnapshot (snapshot.getValue()), which is a Map of the JSON fields.
+        snapshot.getValue(InstantMessage.class) gets there through reflection on every field, this only does a few map lookups.
+        Returns null if the value doesn't look like a message. Fields with the wrong type are treated as missing.
+     */
+    public static InstantMessage fromValue(Object value) {
+        if (!(value instanceof Map)) return null;
+        Map<?, ?> fields = (Map<?, ?>) value;
+        return new InstantMessage(
+                asString(fields.get("message")),
+                asString(fields.get("author")),
+                asString(fields.get("uid")),
+                asLong(fields.get("sentAt")),
+                asLong(fields.get("timestamp")));
+    }
+
+    private static String asString(Object value) {
+        return value instanceof String ? (String) value : null;
+    }
+
+    // Firebase hands numbers over as Long, or as Double if they ever were written with a fraction
+    private static Long asLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    // Display name of the author, only set on messages from before uids. Null fields aren't written by Firebase.
+    public String getAuthor() {
+        return author;
+    }
+
+    // Firebase Auth uid of the author, null on old messages
+    public String getUid() {
+        return uid;
+    }
+
+    public Long getSentAt() {
+        return sentAt;
+    }
+
+    // SERVER_TIMESTAMP while it's being written, the server's time once it was read back
+    public Object getTimestamp() {
+        return timestamp;
+    }
+
+    // The server's timestamp, or null if the message hasn't been stored yet. Not a getter, so Firebase doesn't write it.
+    public Long serverTime() {
+        return timestamp instanceof Long ? (Long) timestamp : null;
+    }
+
+    // Used to skip rebinding a row when Firebase reports a change that didn't change anything we show
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof InstantMessage)) return false;
+        InstantMessage other = (InstantMessage) o;
+        return equal(message, other.message) && equal(author, other.author) && equal(uid, other.uid);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 31 * (message == null ? 0 : message.hashCode()) + (author == null ? 0 : author.hashCode());
+        return 31 * hash + (uid == null ? 0 : uid.hashCode());
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
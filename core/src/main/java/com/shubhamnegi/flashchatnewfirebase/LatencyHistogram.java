@@ -0,0 +1,94 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+    Counts latencies in buckets that grow by a factor of 2^(1/4) (about 19%), from 1 microsecond up to about a day and a half.
+    Percentiles are read from the buckets, so they are accurate to within one bucket no matter how many values were recorded,
+    and recording never allocates.
+
+    Values are recorded from several threads (decoder, main), so every method is synchronized.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS_PER_DOUBLING = 4;
+    private static final int BUCKET_COUNT = 37 * BUCKETS_PER_DOUBLING;
+
+    private final String mName;
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mMaxMicros;
+
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public synchronized void record(long micros) {
+        if (micros < 0) micros = 0;
+        mCounts[bucketOf(micros)]++;
+        mCount++;
+        if (micros > mMaxMicros) mMaxMicros = micros;
+    }
+
+    public void recordMillis(long millis) {
+        record(millis * 1000);
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getMaxMicros() {
+        return mMaxMicros;
+    }
+
+    // Upper bound of the bucket holding the given percentile (0..100), 0 when nothing was recorded
+    public synchronized long getPercentileMicros(double percentile) {
+        if (mCount == 0) return 0;
+        long rank = (long) Math.ceil(percentile / 100 * mCount);
+        if (rank < 1) rank = 1;
+
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) return Math.min(upperBoundOf(i), mMaxMicros);
+        }
+        return mMaxMicros;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mMaxMicros = 0;
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros <= 1) return 0;
+        int bucket = (int) Math.ceil(Math.log(micros) / Math.log(2) * BUCKETS_PER_DOUBLING);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        return (long) Math.floor(Math.pow(2, (double) bucket / BUCKETS_PER_DOUBLING));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mName + "{n=" + mCount
+                + ", p50=" + format(getPercentileMicros(50))
+                + ", p95=" + format(getPercentileMicros(95))
+                + ", p99=" + format(getPercentileMicros(99))
+                + ", max=" + format(mMaxMicros) + "}";
+    }
+
+    private static String format(long micros) {
+        if (micros < 1000) return micros + "us";
+        if (micros < 1000 * 1000) return String.format(Locale.US, "%.1fms", micros / 1000.0);
+        return String.format(Locale.US, "%.2fs", micros / 1000000.0);
+    }
+}
@@ -0,0 +1,575 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/*
+    The messages currently shown in the chat, in push key order, plus an index from push key to position.
+
+    Applying a ChildEventListener event only touches the affected row:
+      - added:   placed right after previousChildName when we have it, otherwise by binary search on the key
+      - changed: looked up through the index and replaced in place
+      - removed: looked up through the index and taken out
+      - moved:   taken out and placed again like an added message
+
+    Keeping every position in the index exact would mean renumbering all the rows after an insert or remove.
+    Instead positions below mIndexValidBelow are known to be right and everything from there on is renumbered
+    the next time one of those keys is looked up. Messages arriving at the end of the chat never invalidate anything,
+    so the common case stays O(1). An insert, remove or move anywhere else is O(n): the rows after it are shifted
+    in the arrays, and the next lookup of a key after it renumbers all of them in the index. Several of those in one
+    batch, e.g. an older page coming in, share a single renumbering as long as nothing is looked up in between.
+
+    Only what a row needs to be drawn is kept, one array per column instead of one object per message:
+      - the author's uid as an id into a SymbolTable, so every uid is stored once. Old messages without a uid
+        have their author's display name there instead, FLAG_NAMED tells the two apart.
+      - the body as UTF-8 bytes, half the size of a String's UTF-16 characters for most chat text
+      - flags such as "sent by me", worked out once when the message is stored instead of on every bind
+      - the server's timestamp, so positionAt() can find where a date starts without decoding anything again
+      - a row id, handed out once when the row is added and kept through changes and moves. It's the RecyclerView's
+        stable id (getRowId()), so the adapter needs no map of its own from push key to id.
+    FootprintBenchmark compares this against keeping a DataSnapshot per message.
+
+    A long chat doesn't have to keep every body in memory. spillOutside() hands the bodies of the resident rows outside
+    a window to an EvictionSink to keep elsewhere, and once they're kept evict() drops them, restore() puts one back.
+    The store keeps the set of resident keys, so finding them costs as much as there are resident rows, not the whole chat.
+    An evicted row keeps its key, author, flags and timestamp, so positions, indexOf() and positionAt() don't change
+    and the list doesn't jump. Only getBody() returns null until the body is restored.
+    MessageWindow in the app decides which rows stay resident.
+
+    Messages the user sends are shown straight away with addLocal(), before Firebase has them. The row is pending until
+    the OutboundQueue reports the write as done (markSent) or failed (markFailed). When Firebase delivers the message
+    through the listeners it has the same push key, so it updates that row instead of adding a second one.
+
+    Push keys are built from the timestamp using characters that sort in ASCII order, so String.compareTo gives chat order.
+    Push keys --> https://firebase.googleblog.com/2015/02/the-2120-ways-to-ensure-unique_68.html
+ */
+public class MessageStore {
+
+    // Receives the body of every row spillOutside() finds, to keep it until restore() is called with it
+    public interface EvictionSink {
+        void onEvicted(String key, byte[] body);
+    }
+
+    // Told about the exact rows that changed, so the adapter can forward them to the RecyclerView
+    public interface Listener {
+        void onInserted(int position, int count);
+
+        void onChanged(int position);
+
+        void onRemoved(int position, int count);
+
+        void onMoved(int fromPosition, int toPosition);
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final byte FLAG_ME = 1;
+    // The write hasn't been confirmed by Firebase yet
+    private static final byte FLAG_PENDING = 2;
+    // The last write failed
+    private static final byte FLAG_FAILED = 4;
+    // Only added locally, no listener has delivered it yet
+    private static final byte FLAG_LOCAL = 8;
+    // The author symbol is a display name, not a uid
+    private static final byte FLAG_NAMED = 16;
+    // The body was evicted, see evict()
+    private static final byte FLAG_EVICTED = 32;
+
+    public static final long NO_TIME = 0;
+
+    private final SymbolTable mAuthors = new SymbolTable();
+    private final String mMyUid;
+    private final String mMyName;
+
+    // Columns, row i of the chat is made of the i-th entry of each array
+    private String[] mKeys = new String[INITIAL_CAPACITY];
+    private int[] mAuthorIds = new int[INITIAL_CAPACITY];
+    private byte[][] mBodies = new byte[INITIAL_CAPACITY][];
+    private byte[] mFlags = new byte[INITIAL_CAPACITY];
+    // NO_TIME while the server hasn't stored the message yet, or for messages written before they had a timestamp
+    private long[] mTimes = new long[INITIAL_CAPACITY];
+    private long[] mRowIds = new long[INITIAL_CAPACITY];
+    private long mNextRowId = 1;
+    private int mSize;
+    private int mEvictedCount;
+    // Keys of the rows whose body is in memory
+    private final HashSet<String> mResident = new HashSet<>();
+
+    private final HashMap<String, Integer> mIndex = new HashMap<>();
+    private int mIndexValidBelow;
+
+    private Listener mListener;
+
+    // Consecutive inserts of one batch are reported as a single range
+    private int mPendingInsertStart = -1;
+    private int mPendingInsertCount;
+
+    /*
+        myUid is the uid of the signed in user, used to tell their own messages apart.
+        myName is their display name, only compared with old messages that have no uid.
+     */
+    public MessageStore(String myUid, String myName) {
+        mMyUid = myUid;
+        mMyName = myName;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    // Only clears the listener if it's still the given one, a newer adapter may have taken over already
+    public void removeListener(Listener listener) {
+        if (mListener == listener) mListener = null;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    // Rows whose body is in memory
+    public int getResidentCount() {
+        return mResident.size();
+    }
+
+    // Rows whose body was evicted and not restored yet
+    public int getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    public String getKey(int position) {
+        return mKeys[position];
+    }
+
+    // Unique for as long as the store lives, also after clear(). A row keeps its id when it's changed or moved.
+    public long getRowId(int position) {
+        return mRowIds[position];
+    }
+
+    // Uid of the author, null for old messages that only have a name
+    public String getAuthorUid(int position) {
+        return (mFlags[position] & FLAG_NAMED) != 0 ? null : mAuthors.get(mAuthorIds[position]);
+    }
+
+    // Display name of the author of an old message, null for messages with a uid
+    public String getAuthorName(int position) {
+        return (mFlags[position] & FLAG_NAMED) != 0 ? mAuthors.get(mAuthorIds[position]) : null;
+    }
+
+    // Null for an evicted row, see isEvicted()
+    public String getBody(int position) {
+        byte[] body = mBodies[position];
+        return body == null ? null : new String(body, UTF_8);
+    }
+
+    public boolean isMe(int position) {
+        return (mFlags[position] & FLAG_ME) != 0;
+    }
+
+    public boolean isEvicted(int position) {
+        return (mFlags[position] & FLAG_EVICTED) != 0;
+    }
+
+    public boolean isPending(int position) {
+        return (mFlags[position] & FLAG_PENDING) != 0;
+    }
+
+    public boolean isFailed(int position) {
+        return (mFlags[position] & FLAG_FAILED) != 0;
+    }
+
+    // When the server stored the message, in milliseconds since the epoch, or NO_TIME
+    public long getServerTime(int position) {
+        return mTimes[position];
+    }
+
+    /*
+        Position of the first message the server stored at or after serverTime, or size() if there is none.
+        Push keys are made from the sender's clock and timestamps by the server's, so the two orders can disagree by the
+        clock skew between phones. The binary search is only exact up to that, which is plenty to scroll to a date.
+        A message without a timestamp counts as stored at the same time as the next message that has one.
+     */
+    public int positionAt(long serverTime) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int probe = mid;
+            while (probe < high && mTimes[probe] == NO_TIME) probe++;
+            if (probe == high) {
+                high = mid;
+            } else if (mTimes[probe] < serverTime) {
+                low = probe + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Position of the first message with a push key after this one, or size() if there is none. The key needn't be loaded.
+    public int positionAfter(String key) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mKeys[mid].compareTo(key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /*
+        Push key of the newest message that came from Firebase, skipping the ones only sent from here.
+        Those keys are made on this device, so listening after them could skip messages others sent in the meantime.
+     */
+    public String getLastSyncedKey() {
+        for (int i = mSize - 1; i >= 0; i--) {
+            if ((mFlags[i] & FLAG_LOCAL) == 0) return mKeys[i];
+        }
+        return null;
+    }
+
+    // Number of distinct authors seen so far
+    public int getAuthorCount() {
+        return mAuthors.size();
+    }
+
+    // Position of the message with this push key, or -1 if we don't have it
+    public int indexOf(String key) {
+        Integer position = mIndex.get(key);
+        if (position == null) return -1;
+        if (position < mIndexValidBelow) return position;
+
+        for (int i = mIndexValidBelow; i < mSize; i++) {
+            mIndex.put(mKeys[i], i);
+        }
+        mIndexValidBelow = mSize;
+        return mIndex.get(key);
+    }
+
+    // Applies a whole batch of listener events, in the order they happened
+    public void apply(List<ChatEvent> events) {
+        for (ChatEvent event : events) {
+            switch (event.type) {
+                case ChatEvent.ADDED:
+                    add(event.key, event.previousKey, event.message);
+                    break;
+                case ChatEvent.CHANGED:
+                    change(event.key, event.previousKey, event.message);
+                    break;
+                case ChatEvent.REMOVED:
+                    remove(event.key);
+                    break;
+                case ChatEvent.MOVED:
+                    move(event.key, event.previousKey);
+                    break;
+            }
+        }
+        dispatchPendingInserts();
+    }
+
+    public void add(String key, String previousKey, InstantMessage message) {
+        // Overlapping pages can deliver the same message twice
+        if (indexOf(key) >= 0) {
+            change(key, previousKey, message);
+            return;
+        }
+
+        int position = findInsertPosition(key, previousKey);
+        int authorId = mAuthors.intern(authorOf(message));
+        insertAt(position, key, authorId, encode(message.getMessage()), rowFlags(authorId, message), timeOf(message), mNextRowId++);
+
+        if (mPendingInsertStart >= 0 && position == mPendingInsertStart + mPendingInsertCount) {
+            mPendingInsertCount++;
+        } else {
+            dispatchPendingInserts();
+            mPendingInsertStart = position;
+            mPendingInsertCount = 1;
+        }
+    }
+
+    public void change(String key, String previousKey, InstantMessage message) {
+        int position = indexOf(key);
+        if (position < 0) {
+            add(key, previousKey, message);
+            return;
+        }
+
+        // Firebase delivered it, but a message we sent stays pending until its write is confirmed
+        byte sendState = (byte) (mFlags[position] & (FLAG_PENDING | FLAG_FAILED));
+        mFlags[position] &= ~FLAG_LOCAL;
+
+        // The echo of a message we sent brings the server's timestamp, nothing that is drawn
+        long time = timeOf(message);
+        if (time != NO_TIME) mTimes[position] = time;
+
+        int authorId = mAuthors.intern(authorOf(message));
+        byte[] body = encode(message.getMessage());
+        byte flags = (byte) (rowFlags(authorId, message) | sendState);
+        if (authorId == mAuthorIds[position] && flags == mFlags[position] && Arrays.equals(body, mBodies[position])) return;
+
+        // The new body makes an evicted row resident again
+        if (isEvicted(position)) {
+            mEvictedCount--;
+            mResident.add(key);
+        }
+        setRow(position, key, authorId, body, flags, mTimes[position]);
+        dispatchPendingInserts();
+        if (mListener != null) mListener.onChanged(position);
+    }
+
+    public void remove(String key) {
+        int position = indexOf(key);
+        if (position < 0) return;
+        // Firebase takes back its local copy of a write that failed, we keep showing the row in its error state
+        if ((mFlags[position] & (FLAG_PENDING | FLAG_FAILED)) != 0) return;
+
+        dispatchPendingInserts();
+        removeAt(position);
+        if (mListener != null) mListener.onRemoved(position, 1);
+    }
+
+    public void move(String key, String previousKey) {
+        int from = indexOf(key);
+        if (from < 0) return;
+
+        dispatchPendingInserts();
+        int authorId = mAuthorIds[from];
+        byte[] body = mBodies[from];
+        byte flags = mFlags[from];
+        long time = mTimes[from];
+        long rowId = mRowIds[from];
+        removeAt(from);
+        int to = findInsertPosition(key, previousKey);
+        insertAt(to, key, authorId, body, flags, time, rowId);
+        if (from != to && mListener != null) mListener.onMoved(from, to);
+    }
+
+    // Shows a message the user just sent, before Firebase has it
+    public void addLocal(String key, InstantMessage message) {
+        int position = indexOf(key);
+        if (position >= 0) {
+            // Already there, e.g. read from the MessageCache after a restart while it was still in the outbox
+            setSendState(position, FLAG_PENDING);
+            return;
+        }
+
+        dispatchPendingInserts();
+        position = findInsertPosition(key, null);
+        int authorId = mAuthors.intern(authorOf(message));
+        insertAt(position, key, authorId, encode(message.getMessage()), (byte) (rowFlags(authorId, message) | FLAG_PENDING | FLAG_LOCAL), NO_TIME, mNextRowId++);
+        if (mListener != null) mListener.onInserted(position, 1);
+    }
+
+    /*
+        Hands the body of every resident row before from or from to on to the sink. Nothing is evicted yet: the body is
+        only dropped by evict() once the sink has it safe, so a body that couldn't be kept isn't lost.
+        Returns how many bodies were handed over.
+     */
+    public int spillOutside(int from, int to, EvictionSink sink) {
+        int spilled = 0;
+        for (String key : mResident) {
+            int position = indexOf(key);
+            if (position >= from && position < to) continue;
+            sink.onEvicted(key, mBodies[position]);
+            spilled++;
+        }
+        return spilled;
+    }
+
+    /*
+        Evicts the body spillOutside() handed over for this row. Returns false and keeps the row as it is if it's gone,
+        evicted already or has another body by now (it was edited since). The listener isn't told, nothing is drawn
+        for rows that far away.
+     */
+    public boolean evict(String key, byte[] body) {
+        int position = indexOf(key);
+        if (position < 0 || isEvicted(position) || mBodies[position] != body) return false;
+        mBodies[position] = null;
+        mFlags[position] |= FLAG_EVICTED;
+        mEvictedCount++;
+        mResident.remove(key);
+        return true;
+    }
+
+    // Puts back the body of an evicted row. Ignored if the row is gone or was made resident by a change in the meantime.
+    public void restore(String key, byte[] body) {
+        int position = indexOf(key);
+        if (position < 0 || !isEvicted(position)) return;
+        mBodies[position] = body;
+        mFlags[position] &= ~FLAG_EVICTED;
+        mEvictedCount--;
+        mResident.add(key);
+        dispatchPendingInserts();
+        if (mListener != null) mListener.onChanged(position);
+    }
+
+    // Firebase confirmed the write
+    public void markSent(String key) {
+        int position = indexOf(key);
+        if (position >= 0) setSendState(position, 0);
+    }
+
+    public void markFailed(String key) {
+        int position = indexOf(key);
+        if (position >= 0) setSendState(position, FLAG_FAILED);
+    }
+
+    private void setSendState(int position, int sendState) {
+        byte flags = (byte) ((mFlags[position] & ~(FLAG_PENDING | FLAG_FAILED)) | sendState);
+        if (flags == mFlags[position]) return;
+        mFlags[position] = flags;
+        dispatchPendingInserts();
+        if (mListener != null) mListener.onChanged(position);
+    }
+
+    public void clear() {
+        dispatchPendingInserts();
+        int count = mSize;
+        Arrays.fill(mKeys, 0, mSize, null);
+        Arrays.fill(mBodies, 0, mSize, null);
+        mSize = 0;
+        mEvictedCount = 0;
+        mResident.clear();
+        mIndex.clear();
+        mIndexValidBelow = 0;
+        if (count > 0 && mListener != null) mListener.onRemoved(0, count);
+    }
+
+    private void insertAt(int position, String key, int authorId, byte[] body, byte flags, long time, long rowId) {
+        ensureCapacity(mSize + 1);
+        int tail = mSize - position;
+        if (tail > 0) {
+            System.arraycopy(mKeys, position, mKeys, position + 1, tail);
+            System.arraycopy(mAuthorIds, position, mAuthorIds, position + 1, tail);
+            System.arraycopy(mBodies, position, mBodies, position + 1, tail);
+            System.arraycopy(mFlags, position, mFlags, position + 1, tail);
+            System.arraycopy(mTimes, position, mTimes, position + 1, tail);
+            System.arraycopy(mRowIds, position, mRowIds, position + 1, tail);
+        }
+        mSize++;
+        setRow(position, key, authorId, body, flags, time);
+        mRowIds[position] = rowId;
+        if ((flags & FLAG_EVICTED) != 0) {
+            mEvictedCount++;
+        } else {
+            mResident.add(key);
+        }
+
+        mIndex.put(key, position);
+        if (position == mSize - 1 && mIndexValidBelow == position) {
+            // Appended at the end, every position stays valid
+            mIndexValidBelow++;
+        } else {
+            mIndexValidBelow = Math.min(mIndexValidBelow, position);
+        }
+    }
+
+    private void setRow(int position, String key, int authorId, byte[] body, byte flags, long time) {
+        mKeys[position] = key;
+        mAuthorIds[position] = authorId;
+        mBodies[position] = body;
+        mFlags[position] = flags;
+        mTimes[position] = time;
+    }
+
+    private static long timeOf(InstantMessage message) {
+        Long time = message.serverTime();
+        return time == null ? NO_TIME : time;
+    }
+
+    // The uid, or the display name of an old message
+    private static String authorOf(InstantMessage message) {
+        return message.getUid() != null ? message.getUid() : message.getAuthor();
+    }
+
+    // Own messages are told apart by uid. Old messages only have a name, so for them it's the name.
+    private byte rowFlags(int authorId, InstantMessage message) {
+        if (message.getUid() == null) {
+            boolean mine = authorId != SymbolTable.NO_SYMBOL && mMyName != null && mMyName.equals(message.getAuthor());
+            return (byte) (FLAG_NAMED | (mine ? FLAG_ME : 0));
+        }
+        return message.getUid().equals(mMyUid) ? FLAG_ME : 0;
+    }
+
+    private void removeAt(int position) {
+        if (isEvicted(position)) {
+            mEvictedCount--;
+        } else {
+            mResident.remove(mKeys[position]);
+        }
+        mIndex.remove(mKeys[position]);
+        int tail = mSize - position - 1;
+        if (tail > 0) {
+            System.arraycopy(mKeys, position + 1, mKeys, position, tail);
+            System.arraycopy(mAuthorIds, position + 1, mAuthorIds, position, tail);
+            System.arraycopy(mBodies, position + 1, mBodies, position, tail);
+            System.arraycopy(mFlags, position + 1, mFlags, position, tail);
+            System.arraycopy(mTimes, position + 1, mTimes, position, tail);
+            System.arraycopy(mRowIds, position + 1, mRowIds, position, tail);
+        }
+        mSize--;
+        mKeys[mSize] = null;
+        mBodies[mSize] = null;
+        mIndexValidBelow = Math.min(mIndexValidBelow, position);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mKeys.length) return;
+        int newCapacity = Math.max(capacity, mKeys.length + (mKeys.length >> 1));
+        mKeys = Arrays.copyOf(mKeys, newCapacity);
+        mAuthorIds = Arrays.copyOf(mAuthorIds, newCapacity);
+        mBodies = Arrays.copyOf(mBodies, newCapacity);
+        mFlags = Arrays.copyOf(mFlags, newCapacity);
+        mTimes = Arrays.copyOf(mTimes, newCapacity);
+        mRowIds = Arrays.copyOf(mRowIds, newCapacity);
+    }
+
+    /*
+        Firebase's previousChildName is relative to the query that fired the event, and we merge several page queries,
+        so it's only trusted when the neighbours confirm it. Otherwise we fall back to a binary search on the key.
+     */
+    private int findInsertPosition(String key, String previousKey) {
+        if (previousKey != null) {
+            int previous = indexOf(previousKey);
+            if (previous >= 0
+                    && mKeys[previous].compareTo(key) < 0
+                    && (previous + 1 == mSize || mKeys[previous + 1].compareTo(key) > 0)) {
+                return previous + 1;
+            }
+        }
+        if (mSize == 0 || mKeys[mSize - 1].compareTo(key) < 0) return mSize;
+
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mKeys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void dispatchPendingInserts() {
+        if (mPendingInsertStart < 0) return;
+        int start = mPendingInsertStart;
+        int count = mPendingInsertCount;
+        mPendingInsertStart = -1;
+        mPendingInsertCount = 0;
+        if (mListener != null) mListener.onInserted(start, count);
+    }
+
+    private static byte[] encode(String text) {
+        return text == null ? null : text.getBytes(UTF_8);
+    }
+}
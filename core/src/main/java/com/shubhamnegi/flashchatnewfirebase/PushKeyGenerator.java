@@ -0,0 +1,75 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import java.util.Random;
+
+/*
+    Generates keys the way DatabaseReference.push() does, for backends that aren't Firebase.
+
+    8 characters of timestamp followed by 12 random characters, from an alphabet that sorts in ASCII order.
+    Keys made in the same millisecond increment the random part, so keys from one generator always sort in the order they were made.
+
+    Push keys --> https://firebase.googleblog.com/2015/02/the-2120-ways-to-ensure-unique_68.html
+ */
+public class PushKeyGenerator {
+
+    private static final String PUSH_CHARS = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+
+    private final Random mRandom;
+    private final int[] mLastRandomChars = new int[12];
+    private long mLastTime = Long.MIN_VALUE;
+
+    public PushKeyGenerator() {
+        this(new Random());
+    }
+
+    public PushKeyGenerator(Random random) {
+        mRandom = random;
+    }
+
+    public String next() {
+        return next(System.currentTimeMillis());
+    }
+
+    // A key for a message created at the given time, milliseconds since the epoch
+    public synchronized String next(long time) {
+        boolean sameTime = time == mLastTime;
+        mLastTime = time;
+
+        char[] key = new char[20];
+        long remaining = time;
+        for (int i = 7; i >= 0; i--) {
+            key[i] = PUSH_CHARS.charAt((int) (remaining % 64));
+            remaining /= 64;
+        }
+
+        if (!sameTime) {
+            for (int i = 0; i < 12; i++) {
+                mLastRandomChars[i] = mRandom.nextInt(64);
+            }
+        } else {
+            // Same millisecond: add one to the random part so this key sorts after the previous one
+            int i = 11;
+            while (i >= 0 && mLastRandomChars[i] == 63) {
+                mLastRandomChars[i] = 0;
+                i--;
+            }
+            if (i >= 0) mLastRandomChars[i]++;
+        }
+        for (int i = 0; i < 12; i++) {
+            key[8 + i] = PUSH_CHARS.charAt(mLastRandomChars[i]);
+        }
+        return new String(key);
+    }
+
+    // The time a key was made, decoded from its first 8 characters. Throws IllegalArgumentException if it isn't a push key.
+    public static long timeOf(String key) {
+        if (key == null || key.length() < 8) throw new IllegalArgumentException("Not a push key: " + key);
+        long time = 0;
+        for (int i = 0; i < 8; i++) {
+            int digit = PUSH_CHARS.indexOf(key.charAt(i));
+            if (digit < 0) throw new IllegalArgumentException("Not a push key: " + key);
+            time = time * 64 + digit;
+        }
+        return time;
+    }
+}
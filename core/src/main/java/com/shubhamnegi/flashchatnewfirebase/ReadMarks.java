@@ -0,0 +1,74 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+/*
+    How far every member of a room has read: one push key per user, the newest message they have seen.
+    Everything someone read is at or before their mark, so "seen by" and unread counts follow from the marks alone
+    and reading never writes anything per message.
+
+    Besides the mark of every uid, the marks are kept sorted, so how many users have seen a message is a binary search
+    instead of a look at every member. That's asked on every bind of our own messages.
+
+    Push keys sort in chat order with String.compareTo, see MessageStore.
+ */
+public class ReadMarks {
+
+    // The mark of every uid that has one
+    private final HashMap<String, String> mMarks = new HashMap<>();
+    // The same marks, sorted. A key is in here once for every user at it.
+    private final ArrayList<String> mSorted = new ArrayList<>();
+
+    // Sets or replaces the mark of the uid, null removes it. Returns false if nothing changed.
+    public boolean set(String uid, String key) {
+        String previous = key == null ? mMarks.remove(uid) : mMarks.put(uid, key);
+        if (previous == null ? key == null : previous.equals(key)) return false;
+
+        if (previous != null) mSorted.remove(Collections.binarySearch(mSorted, previous));
+        if (key != null) {
+            int position = Collections.binarySearch(mSorted, key);
+            mSorted.add(position < 0 ? -position - 1 : position, key);
+        }
+        return true;
+    }
+
+    // Moves the uid's mark to key, but only forward. Returns false if the mark already was at key or after it.
+    public boolean advance(String uid, String key) {
+        return isAfter(key, mMarks.get(uid)) && set(uid, key);
+    }
+
+    // The uid's mark, null if they never read anything
+    public String get(String uid) {
+        return mMarks.get(uid);
+    }
+
+    // Number of users with a mark
+    public int size() {
+        return mMarks.size();
+    }
+
+    // How many users other than exceptUid have read the message with this key, i.e. have a mark at it or after it
+    public int readersOf(String key, String exceptUid) {
+        int low = 0;
+        int high = mSorted.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mSorted.get(mid).compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int readers = mSorted.size() - low;
+        String own = exceptUid == null ? null : mMarks.get(exceptUid);
+        if (own != null && own.compareTo(key) >= 0) readers--;
+        return readers;
+    }
+
+    // Whether the key comes after the mark. Everything comes after no mark at all.
+    public static boolean isAfter(String key, String mark) {
+        return mark == null || key.compareTo(mark) > 0;
+    }
+}
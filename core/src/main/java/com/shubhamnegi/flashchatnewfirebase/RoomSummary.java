@@ -0,0 +1,72 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import java.util.Map;
+
+/*
+    What the room list shows about a room: its newest message and how many messages it has.
+    It's a copy of data that lives in the room's buckets, kept up to date by every write to the room (see FirebaseTransport.write()),
+    so the room list never has to read any messages.
+
+    Like InstantMessage it's read from the JSON tree by hand and never changes.
+ */
+public class RoomSummary {
+
+    private final String room;
+    private final String lastMessage;
+    private final String lastUid;
+    private final Long timestamp;
+    private final long count;
+
+    public RoomSummary(String room, String lastMessage, String lastUid, Long timestamp, long count) {
+        this.room = room;
+        this.lastMessage = lastMessage;
+        this.lastUid = lastUid;
+        this.timestamp = timestamp;
+        this.count = count;
+    }
+
+    // Builds the summary of a room from the value of its snapshot, or returns null if it doesn't look like one
+    public static RoomSummary fromValue(String room, Object value) {
+        if (!(value instanceof Map)) return null;
+        Map<?, ?> fields = (Map<?, ?>) value;
+        Object count = fields.get("count");
+        Object timestamp = fields.get("timestamp");
+        return new RoomSummary(room,
+                asString(fields.get("lastMessage")),
+                asString(fields.get("lastUid")),
+                timestamp instanceof Number ? ((Number) timestamp).longValue() : null,
+                count instanceof Number ? ((Number) count).longValue() : 0);
+    }
+
+    private static String asString(Object value) {
+        return value instanceof String ? (String) value : null;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public String getLastMessage() {
+        return lastMessage;
+    }
+
+    // Uid of the author of the newest message, the name comes from the ProfileCache
+    public String getLastUid() {
+        return lastUid;
+    }
+
+    // Server time of the last write to the room, null if there never was one
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    // Every message ever written to the room
+    public long getCount() {
+        return count;
+    }
+
+    // Messages written since the count was seenCount
+    public long unreadSince(long seenCount) {
+        return Math.max(0, count - seenCount);
+    }
+}
@@ -0,0 +1,380 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/*
+    Full-text index over the messages of a room: for every word, the list of messages it appears in (an inverted index).
+
+    Every message gets a doc id in the order it was added. A word's postings are the doc ids of the messages that have it,
+    in increasing order, so adding a message only appends to the end of a few lists. The words are kept sorted, which
+    makes a prefix ("hel" for "hello" and "help") a range of neighbouring words.
+
+    A query matches the messages that have every one of its words, each taken as a prefix, so results show up while
+    the last word is still being typed. The postings of a word are ORed into a bitmap of doc ids and the words' bitmaps
+    are ANDed, neither looks at the messages themselves. The newest matches come first.
+
+    Words are lower cased and accents are dropped, so "cafe" also finds the spelling with an accent.
+
+    Only the push key and the time of a message are kept, not the message itself: a hit is shown by loading the
+    message it points to (see ChatRepository.loadMessages in the app). Its words only live in the postings.
+    Changing a message adds it again under a new doc id and leaves the old one as a gap that searches skip.
+    The gaps are dropped when the index is written out.
+
+    Not thread safe, MessageSearch in the app only uses it on its own thread.
+    See SearchBenchmark for what a search over 100k messages costs.
+ */
+public class SearchIndex {
+
+    // Written first in every snapshot and journal, one of another version is not read and the index starts over.
+    // Version 2 dropped the messages and writes strings as length prefixed UTF-8.
+    private static final int VERSION = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Diacritics left behind by Normalizer once accented letters are decomposed
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    public static class Hit {
+        public final String key;
+        // Server time of the message, or the time in its push key if it wasn't stored yet
+        public final long time;
+
+        Hit(String key, long time) {
+            this.key = key;
+            this.time = time;
+        }
+    }
+
+    // Newest first
+    private static final Comparator<Hit> NEWEST_FIRST = new Comparator<Hit>() {
+        @Override
+        public int compare(Hit a, Hit b) {
+            return a.time != b.time ? Long.compare(b.time, a.time) : b.key.compareTo(a.key);
+        }
+    };
+
+    // Doc ids of the messages a word appears in, in increasing order
+    private static class Postings {
+        int[] ids = new int[2];
+        int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) return;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+
+    private final TreeMap<String, Postings> mTerms = new TreeMap<>();
+    // Indexed by doc id: the push key, null where a message was changed or removed, and the time
+    private final ArrayList<String> mDocs = new ArrayList<>();
+    private long[] mTimes = new long[16];
+    private final HashMap<String, Integer> mDocIds = new HashMap<>();
+
+    /*
+        Adds a message, or replaces the message with the same key. The old words aren't known any more, so a change
+        always takes a new doc id, even if only the timestamp changed (the server stored a message we sent).
+     */
+    public void add(String key, InstantMessage message) {
+        Integer existing = mDocIds.get(key);
+        if (existing != null) mDocs.set(existing, null);
+
+        int id = addDoc(key, timeOf(key, message));
+        for (String term : terms(message.getMessage())) {
+            Postings postings = mTerms.get(term);
+            if (postings == null) {
+                postings = new Postings();
+                mTerms.put(term, postings);
+            }
+            postings.add(id);
+        }
+    }
+
+    private int addDoc(String key, long time) {
+        int id = mDocs.size();
+        if (id == mTimes.length) mTimes = Arrays.copyOf(mTimes, id * 2);
+        mDocs.add(key);
+        mTimes[id] = time;
+        mDocIds.put(key, id);
+        return id;
+    }
+
+    public void remove(String key) {
+        Integer id = mDocIds.remove(key);
+        if (id != null) mDocs.set(id, null);
+    }
+
+    // Applies a decoded listener event
+    public void apply(ChatEvent event) {
+        if (event.type == ChatEvent.ADDED || event.type == ChatEvent.CHANGED) {
+            add(event.key, event.message);
+        } else if (event.type == ChatEvent.REMOVED) {
+            remove(event.key);
+        }
+    }
+
+    // Number of messages in the index
+    public int size() {
+        return mDocIds.size();
+    }
+
+    // Number of distinct words
+    public int termCount() {
+        return mTerms.size();
+    }
+
+    // Changed and removed messages still taking up a doc id, they're dropped by the next writeTo()
+    public int gaps() {
+        return mDocs.size() - mDocIds.size();
+    }
+
+    /*
+        The newest messages, at most limit of them, that have a word starting with each of the query's words.
+        An empty query matches nothing.
+     */
+    public List<Hit> search(String query, int limit) {
+        Set<String> terms = terms(query);
+        if (terms.isEmpty() || limit <= 0) return Collections.emptyList();
+
+        BitSet matches = null;
+        for (String term : terms) {
+            BitSet termMatches = new BitSet(mDocs.size());
+            // Every word that starts with the term, e.g. "hel" --> "hell", "hello", "help"
+            for (Postings postings : mTerms.subMap(term, true, term + Character.MAX_VALUE, true).values()) {
+                for (int i = 0; i < postings.size; i++) {
+                    termMatches.set(postings.ids[i]);
+                }
+            }
+            if (matches == null) {
+                matches = termMatches;
+            } else {
+                matches.and(termMatches);
+            }
+            if (matches.isEmpty()) return Collections.emptyList();
+        }
+
+        // Keeps the newest limit hits, the oldest of them on top so it's the one pushed out
+        PriorityQueue<Hit> newest = new PriorityQueue<>(limit + 1, Collections.reverseOrder(NEWEST_FIRST));
+        for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+            String key = mDocs.get(id);
+            if (key == null) continue;
+            newest.offer(new Hit(key, mTimes[id]));
+            if (newest.size() > limit) newest.poll();
+        }
+        List<Hit> hits = new ArrayList<>(newest);
+        Collections.sort(hits, NEWEST_FIRST);
+        return hits;
+    }
+
+    // The distinct words of a text, in the order they first appear: runs of letters and digits, lower cased and without accents
+    public static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) return terms;
+        String normalized = text.toLowerCase(Locale.ROOT);
+        // Most messages are plain ASCII and have no accents to drop
+        if (!isAscii(normalized)) {
+            normalized = COMBINING_MARKS.matcher(Normalizer.normalize(normalized, Normalizer.Form.NFD)).replaceAll("");
+        }
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                terms.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    private static long timeOf(String key, InstantMessage message) {
+        Long serverTime = message.serverTime();
+        if (serverTime != null) return serverTime;
+        try {
+            return PushKeyGenerator.timeOf(key);
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    /*
+        Writes the whole index, without its gaps. Doc ids are renumbered and the postings are written as the
+        differences between neighbouring ids, most of which fit in a byte.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        int[] newIds = new int[mDocs.size()];
+        int count = 0;
+        for (int id = 0; id < mDocs.size(); id++) {
+            newIds[id] = mDocs.get(id) == null ? -1 : count++;
+        }
+
+        out.writeInt(VERSION);
+        out.writeInt(count);
+        for (int id = 0; id < mDocs.size(); id++) {
+            String key = mDocs.get(id);
+            if (key == null) continue;
+            writeString(out, key);
+            out.writeLong(mTimes[id]);
+        }
+
+        // Words that only appeared in removed messages are left out
+        Map<String, int[]> terms = new TreeMap<>();
+        for (Map.Entry<String, Postings> entry : mTerms.entrySet()) {
+            Postings postings = entry.getValue();
+            int[] ids = new int[postings.size];
+            int live = 0;
+            for (int i = 0; i < postings.size; i++) {
+                int id = newIds[postings.ids[i]];
+                if (id >= 0) ids[live++] = id;
+            }
+            if (live > 0) terms.put(entry.getKey(), Arrays.copyOf(ids, live));
+        }
+        out.writeInt(terms.size());
+        for (Map.Entry<String, int[]> entry : terms.entrySet()) {
+            int[] ids = entry.getValue();
+            writeString(out, entry.getKey());
+            writeVarInt(out, ids.length);
+            int previous = 0;
+            for (int id : ids) {
+                writeVarInt(out, id - previous);
+                previous = id;
+            }
+        }
+    }
+
+    // Reads what writeTo() wrote. Throws an IOException if it was written by another version or is cut short.
+    public static SearchIndex readFrom(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Search index version " + version + ", expected " + VERSION);
+
+        SearchIndex index = new SearchIndex();
+        int count = in.readInt();
+        for (int id = 0; id < count; id++) {
+            String key = readString(in);
+            index.addDoc(key, in.readLong());
+        }
+
+        int termCount = in.readInt();
+        for (int t = 0; t < termCount; t++) {
+            String term = readString(in);
+            Postings postings = new Postings();
+            postings.size = readVarInt(in);
+            postings.ids = new int[Math.max(postings.size, 2)];
+            int id = 0;
+            for (int i = 0; i < postings.size; i++) {
+                id += readVarInt(in);
+                if (id >= count) throw new IOException("Doc id " + id + " of \"" + term + "\" out of range");
+                postings.ids[i] = id;
+            }
+            index.mTerms.put(term, postings);
+        }
+        return index;
+    }
+
+    /*
+        One event as a journal entry. MessageSearch appends the events it indexes to a journal between two snapshots,
+        so indexing a batch only writes the batch. The journal starts with writeJournalHeader().
+        Only what the index needs is written: the text, to find the words again, and the server time.
+     */
+    public static void writeEvent(DataOutputStream out, ChatEvent event) throws IOException {
+        out.writeByte(event.type);
+        writeString(out, event.key);
+        if (event.type == ChatEvent.ADDED || event.type == ChatEvent.CHANGED) {
+            writeNullable(out, event.message.getMessage());
+            Long serverTime = event.message.serverTime();
+            out.writeBoolean(serverTime != null);
+            if (serverTime != null) out.writeLong(serverTime);
+        }
+    }
+
+    public static ChatEvent readEvent(DataInputStream in) throws IOException {
+        int type = in.readByte();
+        String key = readString(in);
+        InstantMessage message = null;
+        if (type == ChatEvent.ADDED || type == ChatEvent.CHANGED) {
+            String text = readNullable(in);
+            Long timestamp = in.readBoolean() ? in.readLong() : null;
+            message = new InstantMessage(text, null, null, null, timestamp);
+        }
+        return new ChatEvent(type, key, null, null).decoded(message);
+    }
+
+    public static void writeJournalHeader(DataOutputStream out) throws IOException {
+        out.writeInt(VERSION);
+    }
+
+    // Throws an IOException if the journal was written by another version, its events can't be read
+    public static void readJournalHeader(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Search journal version " + version + ", expected " + VERSION);
+    }
+
+    // A varint length and the UTF-8 bytes. Unlike writeUTF() it has no 64KB limit, a message can be longer than that.
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0) throw new IOException("String length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) writeString(out, value);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? readString(in) : null;
+    }
+
+    // 7 bits per byte, the high bit says another byte follows
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,44 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+    Hands out a small int id for every distinct string it is given, and keeps a single copy of each string.
+    A chat has thousands of messages but only a handful of authors, so storing the id per message instead of the name
+    saves a String object (and its characters) per message.
+ */
+public class SymbolTable {
+
+    public static final int NO_SYMBOL = -1;
+
+    private final HashMap<String, Integer> mIds = new HashMap<>();
+    private final ArrayList<String> mSymbols = new ArrayList<>();
+
+    // Returns the id of the string, adding it to the table the first time it's seen
+    public int intern(String symbol) {
+        if (symbol == null) return NO_SYMBOL;
+        Integer id = mIds.get(symbol);
+        if (id == null) {
+            id = mSymbols.size();
+            mSymbols.add(symbol);
+            mIds.put(symbol, id);
+        }
+        return id;
+    }
+
+    // Returns the id of the string without adding it, or NO_SYMBOL
+    public int idOf(String symbol) {
+        if (symbol == null) return NO_SYMBOL;
+        Integer id = mIds.get(symbol);
+        return id == null ? NO_SYMBOL : id;
+    }
+
+    public String get(int id) {
+        return id == NO_SYMBOL ? null : mSymbols.get(id);
+    }
+
+    public int size() {
+        return mSymbols.size();
+    }
+}
@@ -0,0 +1,34 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/*
+    Splits a room's history into one bucket per UTC day, so a client only has to listen to the days it shows.
+
+    A bucket is named after its day, "yyyy-MM-dd". The names sort in time order, so they can be queried by key like push keys.
+    A message belongs to the bucket of its push key's time: the key is all it takes to find the message again,
+    and the messages of one bucket stay in push key order.
+ */
+public class TimeBuckets {
+
+    public static final long BUCKET_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private TimeBuckets() {
+    }
+
+    // The bucket of a time, milliseconds since the epoch
+    public static String of(long time) {
+        // SimpleDateFormat isn't thread safe, and this isn't called often enough to keep one per thread
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    // The bucket a message with this push key is stored in
+    public static String ofKey(String key) {
+        return of(PushKeyGenerator.timeOf(key));
+    }
+}
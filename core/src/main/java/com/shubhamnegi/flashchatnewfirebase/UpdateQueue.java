@@ -0,0 +1,80 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    The thread-safe half of update batching: collects updates from any thread and hands them out all at once.
+
+    offer() tells the caller whether a drain has to be scheduled, which is only the case for the first update after a drain.
+    How the drain is scheduled (once per frame, after a window...) is up to the caller, ChatUpdateBatcher uses the Choreographer.
+ */
+public class UpdateQueue<T> {
+
+    private final Object mLock = new Object();
+    private ArrayList<T> mPending = new ArrayList<>();
+    private boolean mDrainScheduled;
+
+    // Counters, only touched by the thread that drains
+    private long mDrainCount;
+    private long mEventCount;
+    private int mLastBatchSize;
+    private int mMaxBatchSize;
+
+    // Queues an update and returns true if the caller has to schedule a drain. Safe to call from any thread.
+    public boolean offer(T update) {
+        synchronized (mLock) {
+            mPending.add(update);
+            if (mDrainScheduled) return false;
+            mDrainScheduled = true;
+            return true;
+        }
+    }
+
+    // Takes everything queued so far, in the order it was offered. Empty if there was nothing.
+    public List<T> drain() {
+        ArrayList<T> batch;
+        synchronized (mLock) {
+            mDrainScheduled = false;
+            if (mPending.isEmpty()) return Collections.emptyList();
+            batch = mPending;
+            mPending = new ArrayList<>();
+        }
+
+        mDrainCount++;
+        mEventCount += batch.size();
+        mLastBatchSize = batch.size();
+        mMaxBatchSize = Math.max(mMaxBatchSize, batch.size());
+        return batch;
+    }
+
+    // Drops anything still queued
+    public void clear() {
+        synchronized (mLock) {
+            mPending.clear();
+            mDrainScheduled = false;
+        }
+    }
+
+    public long getDrainCount() {
+        return mDrainCount;
+    }
+
+    public long getEventCount() {
+        return mEventCount;
+    }
+
+    public int getLastBatchSize() {
+        return mLastBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    // Average number of updates handed out per drain
+    public float getAverageBatchSize() {
+        return mDrainCount == 0 ? 0f : (float) mEventCount / mDrainCount;
+    }
+}
@@ -0,0 +1,68 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * InstantMessage.fromValue() has to read everything snapshot.getValue(InstantMessage.class) used to.
+ */
+public class InstantMessageTest {
+
+    @Test
+    public void fromValue_readsAllFields() throws Exception {
+        Map<String, Object> value = new HashMap<>();
+        value.put("message", "Hello!");
+        value.put("author", "shubham");
+        value.put("sentAt", 1600000000000L);
+        value.put("timestamp", 1600000000120L);
+
+        InstantMessage message = InstantMessage.fromValue(value);
+        assertEquals("Hello!", message.getMessage());
+        assertEquals("shubham", message.getAuthor());
+        assertEquals(Long.valueOf(1600000000000L), message.getSentAt());
+        assertEquals(Long.valueOf(1600000000120L), message.serverTime());
+    }
+
+    @Test
+    public void fromValue_acceptsMessagesWithoutTimestamps() throws Exception {
+        Map<String, Object> value = new HashMap<>();
+        value.put("message", "Hello!");
+        value.put("author", "shubham");
+
+        InstantMessage message = InstantMessage.fromValue(value);
+        assertEquals("Hello!", message.getMessage());
+        assertNull(message.getSentAt());
+        assertNull(message.serverTime());
+    }
+
+    @Test
+    public void fromValue_rejectsValuesThatAreNoMessage() throws Exception {
+        assertNull(InstantMessage.fromValue(null));
+        assertNull(InstantMessage.fromValue("Hello!"));
+        assertNull(InstantMessage.fromValue(42L));
+    }
+
+    @Test
+    public void newMessage_asksTheServerForItsTimestamp() throws Exception {
+        InstantMessage message = new InstantMessage("Hello!", "shubham", 1600000000000L);
+        assertEquals(InstantMessage.SERVER_TIMESTAMP, message.getTimestamp());
+        assertNull(message.serverTime());
+    }
+
+    @Test
+    public void messageOfAUser_carriesTheUidInsteadOfTheName() throws Exception {
+        InstantMessage message = InstantMessage.fromUser("uid-of-shubham", "Hello!", 1600000000000L);
+        assertEquals("uid-of-shubham", message.getUid());
+        assertNull(message.getAuthor());
+        assertEquals(InstantMessage.SERVER_TIMESTAMP, message.getTimestamp());
+
+        Map<String, Object> value = new HashMap<>();
+        value.put("message", "Hello!");
+        value.put("uid", "uid-of-shubham");
+        assertEquals(message.getUid(), InstantMessage.fromValue(value).getUid());
+    }
+}
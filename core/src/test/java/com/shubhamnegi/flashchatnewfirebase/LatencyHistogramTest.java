@@ -0,0 +1,62 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The percentiles of a LatencyHistogram have to be within one bucket (about 19%) of the exact value.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram_reportsZero() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("empty");
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(50));
+        assertEquals(0, histogram.getPercentileMicros(99));
+    }
+
+    @Test
+    public void percentiles_areWithinOneBucket() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("uniform");
+        for (long micros = 1; micros <= 100_000; micros++) {
+            histogram.record(micros);
+        }
+
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000, histogram.getMaxMicros());
+        assertWithinOneBucket(50_000, histogram.getPercentileMicros(50));
+        assertWithinOneBucket(95_000, histogram.getPercentileMicros(95));
+        assertWithinOneBucket(99_000, histogram.getPercentileMicros(99));
+        assertEquals(100_000, histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    public void slowOutliers_showUpInTheTail() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("outliers");
+        for (int i = 0; i < 980; i++) {
+            histogram.recordMillis(10);
+        }
+        for (int i = 0; i < 20; i++) {
+            histogram.recordMillis(2000);
+        }
+
+        assertWithinOneBucket(10_000, histogram.getPercentileMicros(50));
+        assertWithinOneBucket(10_000, histogram.getPercentileMicros(95));
+        assertEquals(2_000_000, histogram.getPercentileMicros(99));
+    }
+
+    @Test
+    public void reset_forgetsEverything() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("reset");
+        histogram.record(500);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMicros());
+    }
+
+    private static void assertWithinOneBucket(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.2);
+    }
+}
@@ -0,0 +1,38 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Own messages are told apart by uid, so a rename doesn't move them to the other side of the chat.
+ */
+public class MessageStoreAuthorTest {
+
+    @Test
+    public void ownMessages_areFoundByUid() throws Exception {
+        MessageStore store = new MessageStore("my-uid", "me");
+        store.add("-M1", null, InstantMessage.fromUser("my-uid", "mine", null));
+        store.add("-M2", "-M1", InstantMessage.fromUser("other-uid", "theirs", null));
+        // Someone else who picked the same display name
+        store.add("-M3", "-M2", new InstantMessage("impostor", "me", "third-uid", null, null));
+
+        assertTrue(store.isMe(0));
+        assertFalse(store.isMe(1));
+        assertFalse(store.isMe(2));
+        assertEquals("other-uid", store.getAuthorUid(1));
+        assertNull(store.getAuthorName(1));
+    }
+
+    @Test
+    public void oldMessagesWithoutUid_fallBackToTheName() throws Exception {
+        MessageStore store = new MessageStore("my-uid", "me");
+        store.add("-M1", null, new InstantMessage("old", "me"));
+        store.add("-M2", "-M1", new InstantMessage("old", "someone"));
+
+        assertTrue(store.isMe(0));
+        assertFalse(store.isMe(1));
+        assertNull(store.getAuthorUid(1));
+        assertEquals("someone", store.getAuthorName(1));
+    }
+}
@@ -0,0 +1,132 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Evicting bodies must not move any row, and every way a body can come back has to keep the counts right.
+ */
+public class MessageStoreEvictionTest {
+
+    private static final MessageStore.Listener IGNORE = new MessageStore.Listener() {
+        @Override
+        public void onInserted(int position, int count) {
+        }
+
+        @Override
+        public void onChanged(int position) {
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+        }
+    };
+
+    private static MessageStore storeOf(int size) {
+        MessageStore store = new MessageStore("my-uid", "me");
+        for (int i = 0; i < size; i++) {
+            store.add("-M" + (100 + i), null, new InstantMessage("message " + i, null, "uid", null, 1000L + i));
+        }
+        return store;
+    }
+
+    // Spills the bodies outside the window and evicts them as if the spill had been written
+    private static Map<String, byte[]> evictOutside(MessageStore store, int from, int to) {
+        final Map<String, byte[]> spilled = new HashMap<>();
+        store.spillOutside(from, to, new MessageStore.EvictionSink() {
+            @Override
+            public void onEvicted(String key, byte[] body) {
+                spilled.put(key, body);
+            }
+        });
+        for (Map.Entry<String, byte[]> entry : spilled.entrySet()) {
+            assertTrue(store.evict(entry.getKey(), entry.getValue()));
+        }
+        return spilled;
+    }
+
+    @Test
+    public void rowsOutsideTheWindow_loseOnlyTheirBody() throws Exception {
+        MessageStore store = storeOf(10);
+
+        Map<String, byte[]> spilled = evictOutside(store, 3, 6);
+
+        assertEquals(7, spilled.size());
+        assertEquals(3, store.getResidentCount());
+        assertEquals(7, store.getEvictedCount());
+        assertTrue(store.isEvicted(0));
+        assertNull(store.getBody(0));
+        assertEquals("message 3", store.getBody(3));
+        assertFalse(store.isEvicted(5));
+        assertTrue(store.isEvicted(6));
+        // Nothing moved
+        assertEquals(0, store.indexOf("-M100"));
+        assertEquals(1009L, store.getServerTime(9));
+        assertEquals(4, store.positionAt(1004));
+
+        // Spilling again only hands over what's still resident
+        assertEquals(3, evictOutside(store, 0, 0).size());
+
+        store.restore("-M100", spilled.get("-M100"));
+        assertEquals("message 0", store.getBody(0));
+        assertEquals(1, store.getResidentCount());
+    }
+
+    @Test
+    public void bodiesAreKept_untilTheyAreEvicted() throws Exception {
+        MessageStore store = storeOf(3);
+        store.setListener(IGNORE);
+        final Map<String, byte[]> spilled = new HashMap<>();
+
+        assertEquals(3, store.spillOutside(0, 0, new MessageStore.EvictionSink() {
+            @Override
+            public void onEvicted(String key, byte[] body) {
+                spilled.put(key, body);
+            }
+        }));
+        // A spill that never confirms loses nothing
+        assertEquals(3, store.getResidentCount());
+        assertEquals("message 0", store.getBody(0));
+
+        // Edited and removed while the spill was being written, the spilled body is stale
+        store.change("-M100", null, new InstantMessage("edited", null, "uid", null, 1000L));
+        store.remove("-M101");
+        assertFalse(store.evict("-M100", spilled.get("-M100")));
+        assertFalse(store.evict("-M101", spilled.get("-M101")));
+        assertTrue(store.evict("-M102", spilled.get("-M102")));
+        assertFalse(store.evict("-M102", spilled.get("-M102")));
+
+        assertEquals("edited", store.getBody(0));
+        assertEquals(1, store.getResidentCount());
+        assertEquals(1, store.getEvictedCount());
+    }
+
+    @Test
+    public void changingMovingAndRemovingEvictedRows_keepsTheCounts() throws Exception {
+        MessageStore store = storeOf(5);
+        store.setListener(IGNORE);
+        evictOutside(store, 0, 0);
+        assertEquals(5, store.getEvictedCount());
+
+        // An edit brings a new body, the spilled one is stale and not restored
+        store.change("-M100", null, new InstantMessage("edited", null, "uid", null, 1000L));
+        store.restore("-M100", "stale".getBytes("UTF-8"));
+        assertEquals("edited", store.getBody(0));
+
+        store.move("-M101", "-M104");
+        assertTrue(store.isEvicted(4));
+        store.remove("-M102");
+
+        assertEquals(4, store.size());
+        assertEquals(3, store.getEvictedCount());
+        assertEquals(1, store.getResidentCount());
+    }
+}
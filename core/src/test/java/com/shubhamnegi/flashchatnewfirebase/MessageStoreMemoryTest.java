@@ -0,0 +1,41 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The store keeps every author once however many messages they wrote, and a body as its text only.
+ * How much heap that saves against one snapshot per message is measured by FootprintBenchmark (./gradlew :core:jmh).
+ */
+public class MessageStoreMemoryTest {
+
+    private static final int MESSAGES = 10_000;
+    private static final int AUTHORS = 25;
+
+    @Test
+    public void everyAuthorIsKeptOnce() throws Exception {
+        MessageStore store = new MessageStore(null, author(0));
+        String previousKey = null;
+        for (int i = 0; i < MESSAGES; i++) {
+            String key = pushKey(i);
+            // Every snapshot parses its own copy of the strings out of the JSON
+            store.add(key, previousKey, new InstantMessage("message " + i, new String(author(i).toCharArray())));
+            previousKey = key;
+        }
+
+        assertEquals(MESSAGES, store.size());
+        assertEquals(AUTHORS, store.getAuthorCount());
+        assertSame(store.getAuthorName(1), store.getAuthorName(1 + AUTHORS));
+        assertEquals("message 9999", store.getBody(MESSAGES - 1));
+    }
+
+    // 20 characters like a real push key, increasing so the store always appends
+    private static String pushKey(int i) {
+        return String.format("-M%010d%08x", i, i * 2654435761L & 0xffffffffL);
+    }
+
+    private static String author(int i) {
+        return "Author number " + (i % AUTHORS);
+    }
+}
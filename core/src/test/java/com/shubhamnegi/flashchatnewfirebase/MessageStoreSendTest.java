@@ -0,0 +1,136 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * A message we send is one row from the moment it's typed, whether Firebase echoes it before or after the write is confirmed.
+ */
+public class MessageStoreSendTest {
+
+    // Counts the rows the store reported as inserted or removed
+    private static class CountingListener implements MessageStore.Listener {
+        int inserted;
+        int removed;
+
+        @Override
+        public void onInserted(int position, int count) {
+            inserted += count;
+        }
+
+        @Override
+        public void onChanged(int position) {
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            removed += count;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+        }
+    }
+
+    // Five messages of someone else, -M100 to -M104, as the listeners deliver them
+    private static MessageStore storeOf(CountingListener listener) {
+        MessageStore store = new MessageStore("my-uid", "me");
+        List<ChatEvent> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            events.add(ChatEvent.fromCache("-M" + (100 + i), i == 0 ? null : "-M" + (99 + i),
+                    new InstantMessage("message " + i, null, "other-uid", null, 1000L + i)));
+        }
+        store.apply(events);
+        store.setListener(listener);
+        return store;
+    }
+
+    private static ChatEvent echo(String key, String previousKey) {
+        return ChatEvent.fromCache(key, previousKey, new InstantMessage("hello", null, "my-uid", 990L, 1010L));
+    }
+
+    @Test
+    public void echoBeforeTheWriteIsConfirmed_updatesTheLocalRow() throws Exception {
+        CountingListener listener = new CountingListener();
+        MessageStore store = storeOf(listener);
+
+        store.addLocal("-M105", InstantMessage.fromUser("my-uid", "hello", 990L));
+        assertTrue(store.isPending(5));
+        assertEquals("-M104", store.getLastSyncedKey());
+
+        store.apply(Arrays.asList(echo("-M105", "-M104")));
+        assertEquals(6, store.size());
+        assertTrue(store.isPending(5));
+        assertEquals("-M105", store.getLastSyncedKey());
+        assertEquals(1010L, store.getServerTime(5));
+
+        store.markSent("-M105");
+        assertFalse(store.isPending(5));
+        assertFalse(store.isFailed(5));
+        assertEquals(6, store.size());
+        assertEquals(1, listener.inserted);
+    }
+
+    @Test
+    public void echoAfterTheWriteIsConfirmed_updatesTheSentRow() throws Exception {
+        CountingListener listener = new CountingListener();
+        MessageStore store = storeOf(listener);
+
+        store.addLocal("-M105", InstantMessage.fromUser("my-uid", "hello", 990L));
+        store.markSent("-M105");
+        assertFalse(store.isPending(5));
+        // Confirmed, but no listener has delivered it yet
+        assertEquals("-M104", store.getLastSyncedKey());
+
+        store.apply(Arrays.asList(echo("-M105", "-M104")));
+        assertEquals(6, store.size());
+        assertFalse(store.isPending(5));
+        assertEquals("-M105", store.getLastSyncedKey());
+        assertEquals("hello", store.getBody(5));
+        assertEquals(1, listener.inserted);
+    }
+
+    @Test
+    public void messageRestoredFromTheCache_isPendingAgainInsteadOfAddedTwice() throws Exception {
+        CountingListener listener = new CountingListener();
+        MessageStore store = storeOf(listener);
+        store.apply(Arrays.asList(echo("-M105", "-M104")));
+
+        // Still in the outbox from before the restart
+        store.addLocal("-M105", InstantMessage.fromUser("my-uid", "hello", 990L));
+
+        assertEquals(6, store.size());
+        assertTrue(store.isPending(5));
+        assertEquals(1, listener.inserted);
+    }
+
+    @Test
+    public void removingAPendingOrFailedRow_keepsShowingIt() throws Exception {
+        CountingListener listener = new CountingListener();
+        MessageStore store = storeOf(listener);
+        store.addLocal("-M105", InstantMessage.fromUser("my-uid", "failed", 990L));
+        store.addLocal("-M106", InstantMessage.fromUser("my-uid", "pending", 991L));
+        store.markFailed("-M105");
+
+        // Firebase takes back its local copies of the writes
+        store.remove("-M105");
+        store.remove("-M106");
+        assertEquals(7, store.size());
+        assertTrue(store.isFailed(5));
+        assertFalse(store.isPending(5));
+        assertTrue(store.isPending(6));
+        assertEquals(0, listener.removed);
+
+        // Once its write went through, a message is removed like any other
+        store.markSent("-M106");
+        store.remove("-M106");
+        assertEquals(6, store.size());
+        assertEquals(-1, store.indexOf("-M106"));
+        assertEquals(1, listener.removed);
+    }
+}
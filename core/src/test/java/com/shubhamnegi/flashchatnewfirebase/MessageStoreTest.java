@@ -0,0 +1,218 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Every listener event only touches its own row, and the index finds every key at its row afterwards.
+ */
+public class MessageStoreTest {
+
+    // Writes down what the store told the adapter, one string per call
+    private static class RecordingListener implements MessageStore.Listener {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void onInserted(int position, int count) {
+            calls.add("inserted " + position + " " + count);
+        }
+
+        @Override
+        public void onChanged(int position) {
+            calls.add("changed " + position);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            calls.add("removed " + position + " " + count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            calls.add("moved " + fromPosition + " " + toPosition);
+        }
+    }
+
+    private static InstantMessage message(String text) {
+        return new InstantMessage(text, null, "uid", null, 1000L);
+    }
+
+    // Keys -M100, -M101, ... applied as one batch, so their insert has been reported before a test listens
+    private static MessageStore storeOf(int size) {
+        MessageStore store = new MessageStore("my-uid", "me");
+        List<ChatEvent> events = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            events.add(ChatEvent.fromCache("-M" + (100 + i), i == 0 ? null : "-M" + (99 + i), message("message " + i)));
+        }
+        store.apply(events);
+        return store;
+    }
+
+    private static List<String> keys(MessageStore store) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < store.size(); i++) {
+            keys.add(store.getKey(i));
+        }
+        return keys;
+    }
+
+    // Every key has to be found where it is, whatever part of the index was still waiting to be renumbered
+    private static void assertIndexed(MessageStore store) {
+        for (int i = 0; i < store.size(); i++) {
+            assertEquals(store.getKey(i), i, store.indexOf(store.getKey(i)));
+        }
+    }
+
+    @Test
+    public void add_followsPreviousChildName_andReportsTheBatchAsOneRange() throws Exception {
+        MessageStore store = new MessageStore("my-uid", "me");
+        RecordingListener listener = new RecordingListener();
+        store.setListener(listener);
+
+        store.apply(Arrays.asList(
+                ChatEvent.fromCache("-M100", null, message("a")),
+                ChatEvent.fromCache("-M101", "-M100", message("b")),
+                ChatEvent.fromCache("-M102", "-M101", message("c"))));
+        // An older page, in front of what's there
+        store.apply(Arrays.asList(
+                ChatEvent.fromCache("-M090", null, message("y")),
+                ChatEvent.fromCache("-M095", "-M090", message("z"))));
+
+        assertEquals(Arrays.asList("-M090", "-M095", "-M100", "-M101", "-M102"), keys(store));
+        assertEquals(Arrays.asList("inserted 0 3", "inserted 0 2"), listener.calls);
+        assertEquals("z", store.getBody(1));
+        assertIndexed(store);
+    }
+
+    @Test
+    public void add_withAnUnknownOrWrongPreviousChildName_fallsBackToTheKey() throws Exception {
+        MessageStore store = new MessageStore("my-uid", "me");
+        store.add("-M100", null, message("a"));
+        store.add("-M104", "-M100", message("c"));
+
+        // Relative to another page's query: not loaded here
+        store.add("-M102", "-M101", message("b"));
+        // Loaded, but not the row in front of the key
+        store.add("-M106", "-M100", message("d"));
+        store.add("-M099", "-M104", message("first"));
+
+        assertEquals(Arrays.asList("-M099", "-M100", "-M102", "-M104", "-M106"), keys(store));
+        assertIndexed(store);
+    }
+
+    @Test
+    public void addingAKeyTwice_changesTheRowInstead() throws Exception {
+        MessageStore store = storeOf(2);
+        RecordingListener listener = new RecordingListener();
+        store.setListener(listener);
+
+        // Overlapping pages deliver the same message again, unchanged and then edited
+        store.apply(Arrays.asList(ChatEvent.fromCache("-M101", "-M100", message("message 1"))));
+        store.apply(Arrays.asList(ChatEvent.fromCache("-M101", "-M100", message("edited"))));
+
+        assertEquals(2, store.size());
+        assertEquals("edited", store.getBody(1));
+        assertEquals(Arrays.asList("changed 1"), listener.calls);
+    }
+
+    @Test
+    public void change_replacesTheRowInPlace() throws Exception {
+        MessageStore store = storeOf(5);
+        RecordingListener listener = new RecordingListener();
+        store.setListener(listener);
+
+        store.change("-M102", "-M101", new InstantMessage("edited", null, "other-uid", null, 2000L));
+
+        assertEquals(5, store.size());
+        assertEquals("edited", store.getBody(2));
+        assertEquals("other-uid", store.getAuthorUid(2));
+        assertEquals(2000L, store.getServerTime(2));
+        assertEquals(Arrays.asList("changed 2"), listener.calls);
+    }
+
+    @Test
+    public void remove_takesOutOnlyThatRow() throws Exception {
+        MessageStore store = storeOf(5);
+        RecordingListener listener = new RecordingListener();
+        store.setListener(listener);
+
+        store.remove("-M101");
+        store.remove("-M999");
+
+        assertEquals(Arrays.asList("-M100", "-M102", "-M103", "-M104"), keys(store));
+        assertEquals(-1, store.indexOf("-M101"));
+        assertEquals(Arrays.asList("removed 1 1"), listener.calls);
+        assertIndexed(store);
+    }
+
+    @Test
+    public void move_keepsTheRowWhereItsKeyBelongs() throws Exception {
+        MessageStore store = storeOf(5);
+        RecordingListener listener = new RecordingListener();
+        store.setListener(listener);
+
+        // The chat is ordered by push key, which never changes, so a previousChildName that disagrees with it is ignored
+        store.move("-M100", "-M103");
+        store.move("-M999", "-M100");
+
+        assertEquals(Arrays.asList("-M100", "-M101", "-M102", "-M103", "-M104"), keys(store));
+        assertEquals("message 0", store.getBody(0));
+        assertTrue(listener.calls.isEmpty());
+        assertIndexed(store);
+    }
+
+    @Test
+    public void rowIds_stayWithTheirRows() throws Exception {
+        MessageStore store = storeOf(3);
+        store.setListener(new RecordingListener());
+        long first = store.getRowId(0);
+        long last = store.getRowId(2);
+
+        // An older message lands on top and shifts every row down
+        store.add("-M050", null, message("older"));
+        store.change("-M100", null, message("edited"));
+        store.move("-M102", "-M100");
+
+        assertEquals(first, store.getRowId(1));
+        assertEquals(last, store.getRowId(3));
+        assertNotEquals(first, store.getRowId(0));
+        assertNotEquals(store.getRowId(2), store.getRowId(0));
+
+        // A row added again after a remove is a new row
+        store.remove("-M101");
+        store.add("-M101", "-M100", message("again"));
+        assertNotEquals(first, store.getRowId(2));
+        assertNotEquals(last, store.getRowId(2));
+    }
+
+    @Test
+    public void moveAcrossTheLazyIndexBoundary_keepsEveryKeyFindable() throws Exception {
+        MessageStore store = new MessageStore("my-uid", "me");
+        RecordingListener listener = new RecordingListener();
+        List<ChatEvent> events = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            events.add(ChatEvent.fromCache("-M" + (200 + 2 * i), null, message("message " + i)));
+        }
+        // Inserting in the middle leaves every row from position 10 on to be renumbered
+        events.add(ChatEvent.fromCache("-M219", null, message("middle")));
+        store.apply(events);
+        store.setListener(listener);
+
+        // A row above the boundary, whose index entry is one off, with a previous key from below it
+        store.move("-M230", "-M202");
+        // And one from below the boundary, with a previous key from above it
+        store.move("-M204", "-M234");
+
+        assertEquals(21, store.size());
+        assertEquals("-M204", store.getKey(2));
+        assertEquals("middle", store.getBody(10));
+        assertEquals("-M230", store.getKey(16));
+        assertTrue(listener.calls.isEmpty());
+        assertIndexed(store);
+    }
+}
@@ -0,0 +1,51 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Jumping to a date relies on the store knowing when the server stored every message.
+ */
+public class MessageStoreTimeTest {
+
+    @Test
+    public void positionAt_findsTheFirstMessageAtOrAfterTheTime() throws Exception {
+        MessageStore store = new MessageStore("my-uid", "me");
+        store.add("-M1", null, new InstantMessage("a", "other", null, 1000L));
+        store.add("-M2", "-M1", new InstantMessage("b", "other", null, 2000L));
+        store.add("-M3", "-M2", new InstantMessage("c", "other", null, 2000L));
+        store.add("-M4", "-M3", new InstantMessage("d", "other", null, 3000L));
+
+        assertEquals(0, store.positionAt(0));
+        assertEquals(1, store.positionAt(1500));
+        assertEquals(1, store.positionAt(2000));
+        assertEquals(3, store.positionAt(2500));
+        assertEquals(4, store.positionAt(3500));
+    }
+
+    @Test
+    public void positionAt_placesMessagesWithoutTimestampWithTheNextOne() throws Exception {
+        MessageStore store = new MessageStore("my-uid", "me");
+        store.add("-M1", null, new InstantMessage("legacy", "other"));
+        store.add("-M2", "-M1", new InstantMessage("b", "other", null, 2000L));
+        store.add("-M3", "-M2", new InstantMessage("legacy", "other"));
+        store.add("-M4", "-M3", new InstantMessage("d", "other", null, 4000L));
+
+        assertEquals(MessageStore.NO_TIME, store.getServerTime(0));
+        assertEquals(0, store.positionAt(1000));
+        assertEquals(2, store.positionAt(3000));
+        assertEquals(4, store.positionAt(5000));
+    }
+
+    @Test
+    public void echoOfOwnMessage_bringsTheServerTime() throws Exception {
+        MessageStore store = new MessageStore("my-uid", "me");
+        store.addLocal("-M1", new InstantMessage("hello", "me", 990L));
+        assertEquals(MessageStore.NO_TIME, store.getServerTime(0));
+
+        store.change("-M1", null, new InstantMessage("hello", "me", 990L, 1000L));
+        assertEquals(1000L, store.getServerTime(0));
+        assertTrue(store.isPending(0));
+    }
+}
@@ -0,0 +1,51 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Keys of the LoopbackTransport have to sort like Firebase's push keys, the pager and the MessageStore rely on it.
+ */
+public class PushKeyGeneratorTest {
+
+    @Test
+    public void keysOfTheSameMillisecond_sortInCreationOrder() throws Exception {
+        PushKeyGenerator generator = new PushKeyGenerator(new Random(42));
+        String previous = generator.next(1600000000000L);
+        for (int i = 0; i < 10000; i++) {
+            String key = generator.next(1600000000000L);
+            assertEquals(20, key.length());
+            assertTrue(previous + " < " + key, previous.compareTo(key) < 0);
+            previous = key;
+        }
+    }
+
+    @Test
+    public void laterKeys_sortAfterEarlierOnes() throws Exception {
+        PushKeyGenerator generator = new PushKeyGenerator(new Random(42));
+        String previous = generator.next(1600000000000L);
+        for (long time = 1600000000001L; time < 1600000100000L; time += 997) {
+            String key = generator.next(time);
+            assertTrue(previous + " < " + key, previous.compareTo(key) < 0);
+            previous = key;
+        }
+    }
+
+    @Test
+    public void keysOfDifferentGenerators_sortByTime() throws Exception {
+        String earlier = new PushKeyGenerator(new Random(1)).next(1600000000000L);
+        String later = new PushKeyGenerator(new Random(2)).next(1600000000001L);
+        assertTrue(earlier.compareTo(later) < 0);
+    }
+
+    @Test
+    public void timeOf_decodesTheTimeTheKeyWasMadeAt() throws Exception {
+        PushKeyGenerator generator = new PushKeyGenerator(new Random(42));
+        assertEquals(1600000000000L, PushKeyGenerator.timeOf(generator.next(1600000000000L)));
+        assertEquals(1600000000000L, PushKeyGenerator.timeOf(generator.next(1600000000000L)));
+        assertEquals(0L, PushKeyGenerator.timeOf("--------------------"));
+    }
+}
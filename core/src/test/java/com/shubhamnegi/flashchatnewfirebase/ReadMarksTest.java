@@ -0,0 +1,66 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Read receipts and unread counts are worked out from one mark per user, so the marks must add up exactly.
+ */
+public class ReadMarksTest {
+
+    @Test
+    public void readersOf_countsEveryoneElseAtOrAfterTheMessage() throws Exception {
+        ReadMarks marks = new ReadMarks();
+        marks.set("alice", "-M105");
+        marks.set("bob", "-M103");
+        marks.set("carol", "-M103");
+        marks.set("me", "-M110");
+
+        assertEquals(3, marks.readersOf("-M101", "me"));
+        assertEquals(3, marks.readersOf("-M103", "me"));
+        assertEquals(1, marks.readersOf("-M104", "me"));
+        assertEquals(0, marks.readersOf("-M106", "me"));
+        assertEquals(1, marks.readersOf("-M106", null));
+    }
+
+    @Test
+    public void set_replacesAndRemovesMarks() throws Exception {
+        ReadMarks marks = new ReadMarks();
+        assertTrue(marks.set("alice", "-M105"));
+        assertFalse(marks.set("alice", "-M105"));
+        // Another device of hers may have read less, the server's mark wins
+        assertTrue(marks.set("alice", "-M102"));
+        assertEquals(0, marks.readersOf("-M103", null));
+
+        assertTrue(marks.set("alice", null));
+        assertNull(marks.get("alice"));
+        assertEquals(0, marks.size());
+        assertEquals(0, marks.readersOf("-M100", null));
+    }
+
+    @Test
+    public void advance_onlyMovesForward() throws Exception {
+        ReadMarks marks = new ReadMarks();
+        assertTrue(marks.advance("me", "-M105"));
+        assertFalse(marks.advance("me", "-M103"));
+        assertFalse(marks.advance("me", "-M105"));
+        assertTrue(marks.advance("me", "-M107"));
+        assertEquals("-M107", marks.get("me"));
+        assertEquals(1, marks.readersOf("-M106", null));
+    }
+
+    @Test
+    public void unreadMessages_areTheOnesAfterTheMark() throws Exception {
+        MessageStore store = new MessageStore("my-uid", "me");
+        for (int i = 0; i < 10; i++) {
+            store.add("-M" + (100 + i), null, new InstantMessage("message " + i, null, "uid", null, 1000L + i));
+        }
+
+        assertEquals(6, store.size() - store.positionAfter("-M103"));
+        // A mark on a message that isn't loaded, e.g. deleted since, still splits the chat in the right place
+        assertEquals(6, store.size() - store.positionAfter("-M103x"));
+        assertEquals(10, store.size() - store.positionAfter("-M0"));
+        assertEquals(0, store.size() - store.positionAfter("-M109"));
+    }
+}
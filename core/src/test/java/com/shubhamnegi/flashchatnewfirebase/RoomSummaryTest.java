@@ -0,0 +1,44 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * The room list is drawn from summaries alone, so reading one must not trip over missing fields.
+ */
+public class RoomSummaryTest {
+
+    @Test
+    public void fromValue_readsAllFields() throws Exception {
+        Map<String, Object> value = new HashMap<>();
+        value.put("lastMessage", "Hello!");
+        value.put("lastUid", "uid-of-shubham");
+        value.put("timestamp", 1600000000120L);
+        value.put("count", 42L);
+
+        RoomSummary summary = RoomSummary.fromValue("general", value);
+        assertEquals("general", summary.getRoom());
+        assertEquals("Hello!", summary.getLastMessage());
+        assertEquals("uid-of-shubham", summary.getLastUid());
+        assertEquals(Long.valueOf(1600000000120L), summary.getTimestamp());
+        assertEquals(42, summary.getCount());
+    }
+
+    @Test
+    public void unreadCount_neverGoesBelowZero() throws Exception {
+        RoomSummary summary = RoomSummary.fromValue("general", new HashMap<String, Object>());
+        assertEquals(0, summary.getCount());
+        assertNull(summary.getTimestamp());
+        assertEquals(0, summary.unreadSince(5));
+        assertEquals(3, new RoomSummary("general", null, null, null, 8).unreadSince(5));
+    }
+
+    @Test
+    public void fromValue_rejectsWhatIsNotASummary() throws Exception {
+        assertNull(RoomSummary.fromValue("general", "Hello!"));
+    }
+}
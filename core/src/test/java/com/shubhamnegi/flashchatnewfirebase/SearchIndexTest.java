@@ -0,0 +1,137 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Every word of a query is a prefix, all of them have to match, and the newest messages come first.
+ */
+public class SearchIndexTest {
+
+    private static InstantMessage message(String text, long timestamp) {
+        return new InstantMessage(text, null, "uid", null, timestamp);
+    }
+
+    private static List<String> keys(List<SearchIndex.Hit> hits) {
+        List<String> keys = new ArrayList<>();
+        for (SearchIndex.Hit hit : hits) {
+            keys.add(hit.key);
+        }
+        return keys;
+    }
+
+    @Test
+    public void everyWordIsAPrefix_andAllOfThemHaveToMatch() throws Exception {
+        SearchIndex index = new SearchIndex();
+        index.add("-M1", message("Hello world", 1000));
+        index.add("-M2", message("help, the World is ending", 2000));
+        index.add("-M3", message("Caf\u00e9 au lait", 3000));
+
+        assertEquals(Arrays.asList("-M2", "-M1"), keys(index.search("hel", 10)));
+        assertEquals(Arrays.asList("-M2", "-M1"), keys(index.search("WOR hel", 10)));
+        assertEquals(Arrays.asList("-M1"), keys(index.search("hello wo", 10)));
+        assertEquals(Arrays.asList("-M3"), keys(index.search("cafe", 10)));
+        assertTrue(index.search("hello cafe", 10).isEmpty());
+        assertTrue(index.search("  ?! ", 10).isEmpty());
+    }
+
+    @Test
+    public void newestMessagesComeFirst_evenIfTheyWereIndexedFirst() throws Exception {
+        SearchIndex index = new SearchIndex();
+        // The newest page is loaded first, older pages are indexed while scrolling up
+        for (int i = 100; i > 0; i--) {
+            index.add("-M" + i, message("ping " + i, i * 1000L));
+        }
+
+        List<SearchIndex.Hit> hits = index.search("ping", 3);
+        assertEquals(Arrays.asList("-M100", "-M99", "-M98"), keys(hits));
+        assertEquals(100000L, hits.get(0).time);
+    }
+
+    @Test
+    public void changedAndRemovedMessages_areNoLongerFoundByTheirOldWords() throws Exception {
+        SearchIndex index = new SearchIndex();
+        index.add("-M1", message("see you tomorrow", 1000));
+        index.add("-M2", message("see you later", 2000));
+
+        index.apply(new ChatEvent(ChatEvent.CHANGED, "-M1", null, null).decoded(message("see you tonight", 1000)));
+        index.apply(new ChatEvent(ChatEvent.REMOVED, "-M2", null, null));
+
+        assertTrue(index.search("tomorrow", 10).isEmpty());
+        assertTrue(index.search("later", 10).isEmpty());
+        assertEquals(Arrays.asList("-M1"), keys(index.search("see", 10)));
+        assertEquals(1, index.size());
+        assertEquals(2, index.gaps());
+    }
+
+    @Test
+    public void writtenIndex_readsBackWithoutItsGaps() throws Exception {
+        SearchIndex index = new SearchIndex();
+        for (int i = 0; i < 1000; i++) {
+            index.add("-M" + (10000 + i), message("message number " + i + (i % 2 == 0 ? " even" : " odd"), i));
+        }
+        index.remove("-M10000");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes));
+        SearchIndex read = SearchIndex.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(999, read.size());
+        assertEquals(0, read.gaps());
+        assertEquals(index.termCount() - 1, read.termCount()); // "0" was only in the removed message
+        assertEquals(keys(index.search("even", 20)), keys(read.search("even", 20)));
+        assertEquals(Arrays.asList("-M10998"), keys(read.search("number 998", 20)));
+        assertEquals(998L, read.search("998", 1).get(0).time);
+    }
+
+    @Test
+    public void wordsLongerThan64KB_areWrittenAndReadBack() throws Exception {
+        StringBuilder word = new StringBuilder("x");
+        for (int i = 0; i < 70000; i++) {
+            word.append('\u00e9');
+        }
+        SearchIndex index = new SearchIndex();
+        index.add("-M1", message(word.toString(), 1000));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        index.writeTo(out);
+        SearchIndex.writeEvent(out, ChatEvent.fromCache("-M2", "-M1", message(word + " two", 2000)));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        SearchIndex read = SearchIndex.readFrom(in);
+        read.apply(SearchIndex.readEvent(in));
+
+        assertEquals(Arrays.asList("-M2", "-M1"), keys(read.search("xe", 10)));
+    }
+
+    @Test
+    public void journalEntries_replayIntoTheSameIndex() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        SearchIndex.writeJournalHeader(out);
+        SearchIndex.writeEvent(out, ChatEvent.fromCache("-M1", null, message("first", 1000)));
+        SearchIndex.writeEvent(out, ChatEvent.fromCache("-M2", "-M1", message("second", 2000)));
+        SearchIndex.writeEvent(out, new ChatEvent(ChatEvent.REMOVED, "-M1", null, null));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        SearchIndex.readJournalHeader(in);
+        SearchIndex index = new SearchIndex();
+        for (int i = 0; i < 3; i++) {
+            index.apply(SearchIndex.readEvent(in));
+        }
+
+        assertTrue(index.search("first", 10).isEmpty());
+        assertEquals(Arrays.asList("-M2"), keys(index.search("second", 10)));
+        assertEquals(2000L, index.search("second", 10).get(0).time);
+    }
+}
@@ -0,0 +1,40 @@
+package com.shubhamnegi.flashchatnewfirebase;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Buckets are queried by name, so their names have to sort like the days they stand for.
+ */
+public class TimeBucketsTest {
+
+    // 2020-09-13T12:26:40Z
+    private static final long NOON = 1600000000000L;
+
+    @Test
+    public void bucketsAreUtcDays() throws Exception {
+        assertEquals("2020-09-13", TimeBuckets.of(NOON));
+        assertEquals("2020-09-13", TimeBuckets.of(NOON - NOON % TimeBuckets.BUCKET_MILLIS));
+        assertEquals("2020-09-12", TimeBuckets.of(NOON - NOON % TimeBuckets.BUCKET_MILLIS - 1));
+        assertEquals("1970-01-01", TimeBuckets.of(0));
+    }
+
+    @Test
+    public void laterBuckets_sortAfterEarlierOnes() throws Exception {
+        String previous = TimeBuckets.of(NOON);
+        for (int day = 1; day < 2000; day++) {
+            String bucket = TimeBuckets.of(NOON + day * TimeBuckets.BUCKET_MILLIS);
+            assertTrue(previous + " < " + bucket, previous.compareTo(bucket) < 0);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void aMessageIsInTheBucketOfItsKey() throws Exception {
+        String key = new PushKeyGenerator(new Random(42)).next(NOON);
+        assertEquals("2020-09-13", TimeBuckets.ofKey(key));
+    }
+}